@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Benchmarks how long the forecast list query takes while a sync write is in flight, once with
+    the rollback journal and once with write-ahead logging.  The latencies are logged under this
+    class's tag; the WAL run must also show that no read waited for the writer to commit.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    // A sync of many locations: this many days of weather, written in one transaction
+    static final int LOCATIONS = 20;
+    static final int DAYS = 14;
+    // How long the writer keeps its transaction open after its inserts, so that every run
+    // overlaps reads with the write however fast the device is
+    static final long WRITE_HOLD_MILLIS = 500;
+
+    // The query the forecast list's loader makes, by way of WEATHER_WITH_LOCATION
+    static final String LIST_QUERY = "SELECT " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+            " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ?" +
+            " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testReadLatencyDuringSyncWrite() throws Exception {
+        // disableWriteAheadLogging, which gives us the "before", needs Jelly Bean
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long[] locationIds = insertLocations(db);
+
+        setWriteAheadLogging(db, false);
+        List<Long> journal = measureReadsDuringWrite(db, locationIds);
+        setWriteAheadLogging(db, true);
+        List<Long> wal = measureReadsDuringWrite(db, locationIds);
+        dbHelper.close();
+
+        logLatencies("rollback journal", journal);
+        logLatencies("write-ahead log", wal);
+
+        assertFalse("Error: No reads overlapped the write", wal.isEmpty());
+        assertTrue("Error: A read waited for the sync write to commit: "
+                + Collections.max(wal) + "ms",
+                Collections.max(wal) < WRITE_HOLD_MILLIS);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void setWriteAheadLogging(SQLiteDatabase db, boolean enabled) {
+        if (enabled) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
+    }
+
+    private static long[] insertLocations(SQLiteDatabase db) {
+        long[] ids = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + i);
+            ids[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+            assertTrue(ids[i] != -1);
+        }
+        return ids;
+    }
+
+    /**
+     * Runs a sync write on another thread and queries the list on this one until the write
+     * commits.
+     *
+     * @return the latency of each query, in milliseconds
+     */
+    private static List<Long> measureReadsDuringWrite(final SQLiteDatabase db,
+                                                      final long[] locationIds)
+            throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch committed = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // As the sync adapter does: replace every location's days in one transaction
+                db.beginTransaction();
+                BulkInserter inserter = new BulkInserter(db, BulkInserter.WEATHER);
+                try {
+                    db.delete(WeatherEntry.TABLE_NAME, null, null);
+                    writing.countDown();
+                    for (long locationId : locationIds) {
+                        long date = TestUtilities.TEST_DATE;
+                        for (int day = 0; day < DAYS; day++, date += 1000 * 60 * 60 * 24) {
+                            ContentValues values = TestUtilities.createWeatherValues(locationId);
+                            values.put(WeatherEntry.COLUMN_DATE, date);
+                            inserter.insert(values);
+                        }
+                    }
+                    SystemClock.sleep(WRITE_HOLD_MILLIS);
+                    db.setTransactionSuccessful();
+                } finally {
+                    inserter.close();
+                    db.endTransaction();
+                    committed.countDown();
+                }
+            }
+        });
+        writer.start();
+        writing.await();
+
+        String[] selectionArgs = {TestUtilities.TEST_LOCATION + 0,
+                Long.toString(TestUtilities.TEST_DATE)};
+        List<Long> latencies = new ArrayList<>();
+        do {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = db.rawQuery(LIST_QUERY, selectionArgs);
+            cursor.getCount();
+            cursor.close();
+            latencies.add(SystemClock.elapsedRealtime() - start);
+        } while (!committed.await(10, TimeUnit.MILLISECONDS));
+        writer.join();
+        return latencies;
+    }
+
+    private static void logLatencies(String mode, List<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        Log.i(LOG_TAG, mode + ": " + sorted.size() + " list queries during the sync write, median "
+                + sorted.get(sorted.size() / 2) + "ms, max " + sorted.get(sorted.size() - 1) + "ms");
+    }
+}
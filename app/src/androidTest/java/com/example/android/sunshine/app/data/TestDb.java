@@ -20,6 +20,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import java.util.Arrays;
 import java.util.HashSet;
 
 public class TestDb extends AndroidTestCase {
@@ -55,6 +56,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +94,9 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_SYNCED);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_VALIDATOR);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -105,6 +111,27 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    // The bulk insert engine lists each table's columns itself; make sure no column of the
+    // schema is missing from it, or bulk inserts would silently drop that value
+    public void testBulkInserterColumns() {
+        SQLiteDatabase db = new WeatherDbHelper(this.mContext).getReadableDatabase();
+        BulkInserter.Table[] tables = {BulkInserter.WEATHER, BulkInserter.HOURLY,
+                BulkInserter.LOCATION};
+        for (BulkInserter.Table table : tables) {
+            HashSet<String> columns = new HashSet<String>();
+            Cursor c = db.rawQuery("PRAGMA table_info(" + table.name + ")", null);
+            int columnNameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(columnNameIndex));
+            }
+            c.close();
+            assertEquals("Error: BulkInserter columns don't match the " + table.name + " table",
+                    columns, new HashSet<String>(Arrays.asList(table.columns)));
+            assertEquals(table.columns.length, table.types.length);
+        }
+        db.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Builds a populated database as each earlier version of the app created it, opens it with the
+    current WeatherDbHelper, and checks that the upgrade kept every row and ended with the same
+    schema a fresh install gets.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    // The tables as each version created them, from the oldest migratable one on
+    private static final String LOCATION_V2 = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL );";
+
+    private static final String LOCATION_V4 = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_CITY_ID + " INTEGER );";
+
+    private static final String LOCATION_V5 = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+            LocationEntry.COLUMN_LAST_SYNCED + " INTEGER, " +
+            LocationEntry.COLUMN_VALIDATOR + " TEXT );";
+
+    private static final String WEATHER_V2 = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    private static final String WEATHER_V6 = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    private static final String WEATHER_LIST_INDEX_V6 = "CREATE INDEX weather_list ON " +
+            WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+    private static final String WEATHER_DATE_INDEX_V6 = "CREATE INDEX weather_date ON " +
+            WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_DATE + ");";
+
+    private static final String HOURLY_V3 = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);";
+
+    /**
+     * @return the create script of every version that can be migrated, indexed by version
+     */
+    private static String[][] getCreateScripts() {
+        String[][] scripts = new String[WeatherDbHelper.DATABASE_VERSION][];
+        scripts[2] = new String[]{LOCATION_V2, WEATHER_V2};
+        scripts[3] = new String[]{LOCATION_V2, WEATHER_V2, HOURLY_V3};
+        scripts[4] = new String[]{LOCATION_V4, WEATHER_V2, HOURLY_V3};
+        scripts[5] = new String[]{LOCATION_V5, WEATHER_V2, HOURLY_V3};
+        scripts[6] = new String[]{LOCATION_V5, WEATHER_V6, WEATHER_LIST_INDEX_V6,
+                WEATHER_DATE_INDEX_V6, HOURLY_V3};
+        return scripts;
+    }
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        List<String> freshSchema = describeSchema(
+                new WeatherDbHelper(mContext).getReadableDatabase());
+        String[][] scripts = getCreateScripts();
+
+        for (int version = WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            assertNotNull("Error: No create script for version " + version, scripts[version]);
+
+            SQLiteDatabase old = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                    0, null);
+            for (String sql : scripts[version]) {
+                old.execSQL(sql);
+            }
+            ContentValues location = createLocationValues(version);
+            long locationId = old.insert(LocationEntry.TABLE_NAME, null, location);
+            assertTrue(locationId != -1);
+            ContentValues weather = TestUtilities.createWeatherValues(locationId);
+            assertTrue(old.insert(WeatherEntry.TABLE_NAME, null, weather) != -1);
+            ContentValues hourly = null;
+            if (version >= 3) {
+                hourly = createHourlyValues(locationId);
+                assertTrue(old.insert(HourlyEntry.TABLE_NAME, null, hourly) != -1);
+            }
+            old.setVersion(version);
+            old.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            String error = "after upgrading from version " + version;
+            assertEquals("Error: The schema differs from a fresh install's " + error,
+                    freshSchema, describeSchema(db));
+
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+            assertTrue("Error: The location was lost " + error, cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord("Error: The location changed " + error,
+                    cursor, location);
+            assertEquals(locationId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+            cursor.close();
+
+            cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+            assertTrue("Error: The forecast was lost " + error, cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord("Error: The forecast changed " + error,
+                    cursor, weather);
+            cursor.close();
+
+            if (hourly != null) {
+                cursor = db.query(HourlyEntry.TABLE_NAME, null, null, null, null, null, null);
+                assertTrue("Error: The hourly forecast was lost " + error, cursor.moveToFirst());
+                TestUtilities.validateCurrentRecord("Error: The hourly forecast changed " + error,
+                        cursor, hourly);
+                cursor.close();
+            }
+            dbHelper.close();
+        }
+    }
+
+    // Databases older than the migrations are rebuilt rather than left broken
+    public void testUpgradeFromUnknownVersion() {
+        List<String> freshSchema = describeSchema(
+                new WeatherDbHelper(mContext).getReadableDatabase());
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        SQLiteDatabase old = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        old.execSQL(WEATHER_V2);
+        old.setVersion(WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION - 1);
+        old.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        assertEquals(freshSchema, describeSchema(dbHelper.getReadableDatabase()));
+        dbHelper.close();
+    }
+
+    private static ContentValues createLocationValues(int version) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        if (version < 4) {
+            values.remove(LocationEntry.COLUMN_CITY_ID);
+        }
+        if (version >= 5) {
+            values.put(LocationEntry.COLUMN_LAST_SYNCED, TestUtilities.TEST_DATE);
+            values.put(LocationEntry.COLUMN_VALIDATOR, "\"etag\"");
+        }
+        return values;
+    }
+
+    private static ContentValues createHourlyValues(long locationId) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HourlyEntry.COLUMN_DATE_TIME, TestUtilities.TEST_DATE);
+        values.put(HourlyEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(HourlyEntry.COLUMN_WEATHER_ID, 321);
+        values.put(HourlyEntry.COLUMN_TEMP, 70.5);
+        values.put(HourlyEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(HourlyEntry.COLUMN_PRESSURE, 1.3);
+        values.put(HourlyEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(HourlyEntry.COLUMN_DEGREES, 1.1);
+        return values;
+    }
+
+    /**
+     * @return every table's columns and every index's columns, sorted, then closes the database
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (tables.moveToNext()) {
+            String table = tables.getString(0);
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                schema.add(table + "." + columns.getString(columns.getColumnIndex("name"))
+                        + " " + columns.getString(columns.getColumnIndex("type"))
+                        + " notnull=" + columns.getInt(columns.getColumnIndex("notnull"))
+                        + " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+            }
+            columns.close();
+
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexes.moveToNext()) {
+                String index = indexes.getString(indexes.getColumnIndex("name"));
+                StringBuilder description = new StringBuilder(table + " index " + index
+                        + " unique=" + indexes.getInt(indexes.getColumnIndex("unique")) + " (");
+                Cursor indexColumns = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                while (indexColumns.moveToNext()) {
+                    description.append(indexColumns.getString(
+                            indexColumns.getColumnIndex("name"))).append(' ');
+                }
+                indexColumns.close();
+                schema.add(description.append(')').toString());
+            }
+            indexes.close();
+        }
+        tables.close();
+        db.close();
+        Collections.sort(schema);
+        return schema;
+    }
+}
@@ -16,20 +16,31 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncDiagnosticsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -51,6 +62,16 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                ArchiveEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 WeatherEntry.CONTENT_URI,
                 null,
@@ -512,4 +533,420 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // A columnar batch must land exactly as the same rows passed as ContentValues would
+    public void testColumnBatchInsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] expected = createBulkInsertWeatherValues(locationRowId);
+        int rows = expected.length;
+        long[] locKeys = new long[rows];
+        long[] dates = new long[rows];
+        int[] weatherIds = new int[rows];
+        String[] descriptions = new String[rows];
+        double[] minTemps = new double[rows];
+        double[] maxTemps = new double[rows];
+        double[] humidities = new double[rows];
+        double[] pressures = new double[rows];
+        double[] windSpeeds = new double[rows];
+        double[] degrees = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            locKeys[i] = expected[i].getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            dates[i] = expected[i].getAsLong(WeatherEntry.COLUMN_DATE);
+            weatherIds[i] = expected[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            descriptions[i] = expected[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            minTemps[i] = expected[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            maxTemps[i] = expected[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            humidities[i] = expected[i].getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            pressures[i] = expected[i].getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            windSpeeds[i] = expected[i].getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            degrees[i] = expected[i].getAsDouble(WeatherEntry.COLUMN_DEGREES);
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int insertCount = new ColumnBatch()
+                .put(WeatherEntry.COLUMN_LOC_KEY, locKeys)
+                .put(WeatherEntry.COLUMN_DATE, dates)
+                .put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds)
+                .put(WeatherEntry.COLUMN_SHORT_DESC, descriptions)
+                .put(WeatherEntry.COLUMN_MIN_TEMP, minTemps)
+                .put(WeatherEntry.COLUMN_MAX_TEMP, maxTemps)
+                .put(WeatherEntry.COLUMN_HUMIDITY, humidities)
+                .put(WeatherEntry.COLUMN_PRESSURE, pressures)
+                .put(WeatherEntry.COLUMN_WIND_SPEED, windSpeeds)
+                .put(WeatherEntry.COLUMN_DEGREES, degrees)
+                .insert(mContext.getContentResolver(), WeatherEntry.CONTENT_URI);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testColumnBatchInsert.  Error validating WeatherEntry " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+
+        // Columns of unequal length are refused rather than half inserted
+        try {
+            new ColumnBatch()
+                    .put(WeatherEntry.COLUMN_LOC_KEY, locKeys)
+                    .put(WeatherEntry.COLUMN_DATE, new long[]{TestUtilities.TEST_DATE})
+                    .insert(mContext.getContentResolver(), WeatherEntry.CONTENT_URI);
+            fail("Error: A ragged batch should not be inserted");
+        } catch (IllegalArgumentException expectedException) {
+        }
+    }
+
+    // A date put as a String is normalized like one put as a long
+    public void testBulkInsertStringDate() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        long day = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues expected = TestUtilities.createWeatherValues(locationRowId);
+        expected.put(WeatherEntry.COLUMN_DATE, day);
+        ContentValues stringDate = new ContentValues(expected);
+        // An hour into the day, so only normalization brings it back to the stored date
+        stringDate.put(WeatherEntry.COLUMN_DATE, Long.toString(day + 60 * 60 * 1000));
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{stringDate});
+        assertEquals(1, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        TestUtilities.validateCursor("testBulkInsertStringDate.", cursor, expected);
+    }
+
+    // Locations go through the same engine; a duplicate location setting is skipped, not fatal
+    public void testBulkInsertLocations() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        ContentValues other = new ContentValues(northPole);
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        other.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        ContentValues[] values = {northPole, other, new ContentValues(northPole)};
+
+        int insertCount = mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, values);
+        assertEquals("Error: The duplicate location should have been skipped", 2, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testBulkInsertLocations.", cursor, other);
+        cursor.moveToNext();
+        TestUtilities.validateCurrentRecord("testBulkInsertLocations.", cursor, northPole);
+        cursor.close();
+    }
+
+    // The sync adapter writes every location's rows with one applyBatch call.  Make sure the
+    // batch lands in a single transaction: either every row is written, or none is.
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        // The notifications are held back until the batch commits, but they must still arrive
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results.length);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // Now a batch whose last operation fails must leave the table untouched
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_LOC_KEY, locationRowId).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: A batch with an invalid row should not succeed");
+        } catch (SQLException expected) {
+        }
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: A failed batch left rows behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // A canceled sync interrupts its thread, which runs the provider's writes.  Both kinds of
+    // write must give up and roll back rather than finish the transaction.
+    public void testInterruptedWritesRollBack() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals("Error: an interrupted bulk insert should write nothing", 0,
+                    mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues));
+            try {
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+                fail("Error: an interrupted batch should not succeed");
+            } catch (OperationApplicationException expected) {
+            }
+        } finally {
+            // Clear the flag so it does not leak into the next test
+            Thread.interrupted();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: interrupted writes left rows behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        The 3-hourly steps are bulk inserted in one go and read back one location and one time
+        window at a time, in time order.
+     */
+    public void testHourlyWindowQuery() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long stepMillis = 3 * 60 * 60 * 1000L;
+        long start = 1419033600000L;
+
+        ContentValues[] steps = new ContentValues[HOURLY_STEPS_TO_INSERT];
+        for (int i = 0; i < steps.length; i++) {
+            // Insert in reverse to make sure the query sorts by time
+            ContentValues stepValues = new ContentValues();
+            stepValues.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            stepValues.put(HourlyEntry.COLUMN_DATE_TIME, start + (steps.length - 1 - i) * stepMillis);
+            stepValues.put(HourlyEntry.COLUMN_TEMP, 20.0 + i);
+            stepValues.put(HourlyEntry.COLUMN_HUMIDITY, 80.0);
+            stepValues.put(HourlyEntry.COLUMN_PRESSURE, 1013.0);
+            stepValues.put(HourlyEntry.COLUMN_WIND_SPEED, 4.2);
+            stepValues.put(HourlyEntry.COLUMN_DEGREES, 270.0);
+            stepValues.put(HourlyEntry.COLUMN_SHORT_DESC, "Clouds");
+            stepValues.put(HourlyEntry.COLUMN_WEATHER_ID, 803);
+            steps[i] = stepValues;
+        }
+        int insertCount = mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, steps);
+        assertEquals(HOURLY_STEPS_TO_INSERT, insertCount);
+
+        // The second day: steps 8 to 15
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithWindow(TestUtilities.TEST_LOCATION,
+                        start + 8 * stepMillis, start + 16 * stepMillis),
+                new String[]{HourlyEntry.COLUMN_DATE_TIME}, null, null, null);
+        assertEquals("Error: the window query returned the wrong number of steps", 8, cursor.getCount());
+        long previous = 0;
+        while (cursor.moveToNext()) {
+            long dateTime = cursor.getLong(0);
+            assertTrue("Error: steps are not in time order", dateTime > previous);
+            previous = dateTime;
+        }
+        assertEquals(start + 15 * stepMillis, previous);
+        cursor.close();
+
+        // Another location sees nothing
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithWindow("nowhere", 0, Long.MAX_VALUE),
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    static private final int HOURLY_STEPS_TO_INSERT = 40;
+
+    /*
+        A location URI opted into stale-while-revalidate reads like any other, with the
+        location's freshness joined in.  Whether it revalidates depends on the age of the rows,
+        and a location is revalidated at most once per backoff however often it is read.
+     */
+    public void testStaleWhileRevalidate() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // Fresh enough that reading does not ask for a sync
+        long lastSynced = System.currentTimeMillis();
+        ContentValues freshness = new ContentValues();
+        freshness.put(LocationEntry.COLUMN_LAST_SYNCED, lastSynced);
+        freshness.put(LocationEntry.COLUMN_VALIDATOR, "\"v1\"");
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI, freshness,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}));
+
+        Uri uri = WeatherEntry.withMaxAge(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), 60 * 60 * 1000L);
+        assertEquals(60 * 60 * 1000L, WeatherEntry.getMaxAgeFromUri(uri));
+        assertEquals(-1, WeatherEntry.getMaxAgeFromUri(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)));
+
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_LAST_SYNCED,
+                        LocationEntry.COLUMN_VALIDATOR}, null, null, null);
+        assertTrue("Error: the opted-in query returned no rows", cursor.moveToFirst());
+        assertEquals(lastSynced, cursor.getLong(1));
+        assertEquals("\"v1\"", cursor.getString(2));
+        cursor.close();
+
+        long now = lastSynced;
+        assertFalse(WeatherProvider.isStale(now - 1000, 60 * 1000, now));
+        assertTrue(WeatherProvider.isStale(now - 61 * 1000, 60 * 1000, now));
+        assertTrue("Error: never synced rows should be stale", WeatherProvider.isStale(0, 60 * 1000, now));
+        assertTrue("Error: rows from the future should be stale",
+                WeatherProvider.isStale(now + 1000, 60 * 1000, now));
+
+        String location = "revalidate-" + now;
+        assertTrue(WeatherProvider.claimRevalidation(location, now));
+        assertFalse("Error: a second reader should not revalidate again",
+                WeatherProvider.claimRevalidation(location, now + 1000));
+        assertTrue(WeatherProvider.claimRevalidation(location,
+                now + WeatherProvider.REVALIDATION_BACKOFF_MILLIS));
+    }
+
+    /*
+        The diagnostics URI serves the in-memory ring buffer of sync timings: newest last, no
+        more than its capacity, and no writes.
+     */
+    // Days past their date move into the archive and are rolled up by week and month as they
+    // age; nothing is lost along the way and the live table keeps only current days
+    public void testArchiveRollsUp() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        // Today and each of the 400 days before it, made by Julian day so that no two collide
+        // across a DST change
+        final int pastDays = 400;
+        Time time = new Time();
+        long now = System.currentTimeMillis();
+        time.set(now);
+        int today = Time.getJulianDay(now, time.gmtoff);
+        ContentValues[] values = new ContentValues[pastDays + 1];
+        double sumOfMins = 0;
+        for (int i = 0; i <= pastDays; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, time.setJulianDay(today - i));
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, -(i % 30));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 40 + i % 17);
+            if (i > 0) {
+                sumOfMins += -(i % 30);
+            }
+        }
+        assertEquals(values.length,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+
+        long yesterday = time.setJulianDay(today - 1);
+        int moved = mContext.getContentResolver().delete(
+                WeatherEntry.withArchive(WeatherEntry.CONTENT_URI),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(yesterday)});
+        assertEquals(pastDays, moved);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: The live table should only keep today", 1, cursor.getCount());
+        cursor.close();
+
+        String[] projection = {ArchiveEntry.COLUMN_PERIOD, ArchiveEntry.COLUMN_DATE,
+                ArchiveEntry.COLUMN_DAYS, ArchiveEntry.COLUMN_MIN_TEMP,
+                ArchiveEntry.COLUMN_MAX_TEMP, ArchiveEntry.COLUMN_AVG_MIN_TEMP};
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                projection, null, null, null);
+        int days = 0;
+        int[] rowsByPeriod = new int[3];
+        int lastPeriod = ArchiveEntry.PERIOD_MONTH;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double weightedMins = 0;
+        long oldestDayRow = now - (WeatherArchive.DAY_ROWS_KEPT_DAYS + 7) * DateUtils.DAY_IN_MILLIS;
+        while (cursor.moveToNext()) {
+            int period = cursor.getInt(0);
+            assertTrue("Error: A longer period follows a shorter one", period <= lastPeriod);
+            if (period == ArchiveEntry.PERIOD_DAY) {
+                assertTrue("Error: A day was kept past its window", cursor.getLong(1) > oldestDayRow);
+            }
+            lastPeriod = period;
+            rowsByPeriod[period]++;
+            days += cursor.getInt(2);
+            min = Math.min(min, cursor.getDouble(3));
+            max = Math.max(max, cursor.getDouble(4));
+            weightedMins += cursor.getDouble(5) * cursor.getInt(2);
+        }
+        cursor.close();
+
+        assertEquals("Error: Days were lost rolling up the archive", pastDays, days);
+        assertTrue("Error: Nothing was kept by day", rowsByPeriod[ArchiveEntry.PERIOD_DAY] > 0);
+        assertTrue("Error: Nothing was rolled up by week", rowsByPeriod[ArchiveEntry.PERIOD_WEEK] > 0);
+        assertTrue("Error: Nothing was rolled up by month", rowsByPeriod[ArchiveEntry.PERIOD_MONTH] > 0);
+        assertEquals(-29.0, min);
+        assertEquals(56.0, max);
+        assertEquals("Error: The averages don't add up to the days rolled up",
+                sumOfMins, weightedMins, 0.001);
+
+        // Archiving again finds nothing new to move, and rolling up what is already rolled up
+        // changes nothing
+        moved = mContext.getContentResolver().delete(
+                WeatherEntry.withArchive(WeatherEntry.CONTENT_URI),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(yesterday)});
+        assertEquals(0, moved);
+        cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                new String[]{"SUM(" + ArchiveEntry.COLUMN_DAYS + ")"}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(pastDays, cursor.getInt(0));
+        cursor.close();
+    }
+
+    public void testSyncDiagnostics() {
+        SyncDiagnostics.clear();
+        for (int i = 0; i < SyncDiagnostics.CAPACITY + 5; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SyncDiagnosticsEntry.COLUMN_START_TIME, 1000L + i);
+            values.put(SyncDiagnosticsEntry.COLUMN_ROWS_WRITTEN, i);
+            SyncDiagnostics.record(values);
+        }
+
+        String type = mContext.getContentResolver().getType(SyncDiagnosticsEntry.CONTENT_URI);
+        assertEquals("Error: the SyncDiagnosticsEntry CONTENT_URI should return its CONTENT_TYPE",
+                SyncDiagnosticsEntry.CONTENT_TYPE, type);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncDiagnosticsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the ring buffer should hold only the latest syncs",
+                SyncDiagnostics.CAPACITY, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(1000L + SyncDiagnostics.CAPACITY + 4, cursor.getLong(
+                cursor.getColumnIndex(SyncDiagnosticsEntry.COLUMN_START_TIME)));
+        assertEquals("Error: unrecorded columns should read as 0", 0, cursor.getLong(
+                cursor.getColumnIndex(SyncDiagnosticsEntry.COLUMN_FAN_OUT_MILLIS)));
+        cursor.close();
+
+        try {
+            mContext.getContentResolver().delete(SyncDiagnosticsEntry.CONTENT_URI, null, null);
+            fail("Error: the diagnostics URI should be read-only");
+        } catch (UnsupportedOperationException expected) {
+        }
+        SyncDiagnostics.clear();
+    }
 }
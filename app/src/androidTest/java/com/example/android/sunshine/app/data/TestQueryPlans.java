@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the query WeatherProvider makes for every URI it matches, with the
+    projections and selections the app really passes, and fails if any of them scans a whole
+    table or index.  A schema or query change that loses an index shows up here first.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final long TEST_LOCATION_ID = 10L;
+
+    // The forecast list's projection, which the list index must cover
+    private static final String[] LIST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * One query the app makes: a URI and what is passed along with it.
+     */
+    private static class Query {
+        final String name;
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+
+        Query(String name, Uri uri, String[] projection, String selection,
+              String[] selectionArgs, String sortOrder) {
+            this.name = name;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+    }
+
+    private static List<Query> buildQueries() {
+        String today = Long.toString(TestUtilities.TEST_DATE);
+        String locationId = Long.toString(TEST_LOCATION_ID);
+        List<Query> queries = new ArrayList<>();
+        // The forecast list, the widgets and Muzei
+        queries.add(new Query("forecast list",
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                LIST_PROJECTION, null, null, DATE_ASC));
+        queries.add(new Query("all days of a location",
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, DATE_ASC));
+        // The detail view and the today widget
+        queries.add(new Query("one day",
+                WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, null, null));
+        // ForecastDiff, before writing a location's days
+        queries.add(new Query("stored days of a location", WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{locationId, today}, null));
+        // ForecastReplayService, on start
+        queries.add(new Query("any current day", WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{today}, null));
+        // addLocation.  Reading the city IDs of every location is left out: it wants every row.
+        queries.add(new Query("location by setting", LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null));
+        // The hourly strip
+        queries.add(new Query("hourly window",
+                HourlyEntry.buildHourlyLocationWithWindow(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, TestUtilities.TEST_DATE + 86400000L),
+                null, null, null, null));
+        queries.add(new Query("hourly steps of a location", HourlyEntry.CONTENT_URI,
+                null,
+                HourlyEntry.COLUMN_LOC_KEY + " = ? AND " + HourlyEntry.COLUMN_DATE_TIME + " >= ?",
+                new String[]{locationId, today}, HourlyEntry.COLUMN_DATE_TIME + " ASC"));
+        // The history of a location
+        queries.add(new Query("archive of a location",
+                ArchiveEntry.buildArchiveLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, null, null));
+        // WeatherArchive, rolling up one location's days or weeks
+        queries.add(new Query("archived periods to roll up", ArchiveEntry.CONTENT_URI,
+                null,
+                ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_PERIOD + " = ? AND "
+                        + ArchiveEntry.COLUMN_DATE + " < ?",
+                new String[]{locationId, Integer.toString(ArchiveEntry.PERIOD_DAY), today},
+                ArchiveEntry.COLUMN_DATE));
+        return queries;
+    }
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    // Every URI served from a table must have at least one query above
+    public void testEveryUriIsCovered() throws Exception {
+        Set<Integer> covered = new HashSet<>();
+        for (Query query : buildQueries()) {
+            covered.add(WeatherProvider.buildUriMatcher().match(query.uri));
+        }
+        for (Field field : WeatherProvider.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() != int.class || !Modifier.isStatic(modifiers)
+                    || !Modifier.isFinal(modifiers)) {
+                continue;
+            }
+            int match = field.getInt(null);
+            // Served from memory, not from a table
+            if (match == WeatherProvider.DIAGNOSTICS_SYNC) {
+                continue;
+            }
+            assertTrue("Error: No query plan is checked for " + field.getName(),
+                    covered.contains(match));
+        }
+    }
+
+    public void testNoFullScans() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        for (Query query : buildQueries()) {
+            List<String> plan = explain(db, query);
+            for (String step : plan) {
+                assertFalse("Error: The " + query.name + " query scans: " + plan,
+                        step.startsWith("SCAN"));
+            }
+        }
+        db.close();
+    }
+
+    // The forecast list is read on every start; it must come straight out of the list index
+    public void testListQueryIsCovered() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        List<String> plan = explain(db, buildQueries().get(0));
+        boolean covering = false;
+        for (String step : plan) {
+            if (step.contains(WeatherEntry.TABLE_NAME)) {
+                covering = step.contains("COVERING INDEX " + WeatherDbHelper.WEATHER_LIST_INDEX);
+            }
+        }
+        assertTrue("Error: The forecast list doesn't read the list index: " + plan, covering);
+        db.close();
+    }
+
+    /**
+     * @return the detail of each step of the query's plan
+     */
+    private static List<String> explain(SQLiteDatabase db, Query query) {
+        WeatherProvider.Select select = WeatherProvider.buildSelect(query.uri, query.projection,
+                query.selection, query.selectionArgs, query.sortOrder);
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + select.sql, select.selectionArgs);
+        List<String> plan = new ArrayList<>();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        Log.d(LOG_TAG, query.name + ": " + plan);
+        return plan;
+    }
+}
@@ -36,6 +36,14 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithWindow(LOCATION_QUERY, TEST_DATE, TEST_DATE + 86400000L);
+    // content://com.example.android.sunshine.app/diagnostics/sync"
+    private static final Uri TEST_DIAGNOSTICS_SYNC_DIR = WeatherContract.SyncDiagnosticsEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.ArchiveEntry.buildArchiveLocationWithStartDate(LOCATION_QUERY, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +61,15 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The DIAGNOSTICS SYNC URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_SYNC_DIR), WeatherProvider.DIAGNOSTICS_SYNC);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A minimal HTTP server on the loopback interface that answers every request with one canned
+ * response, so the network code can be tested without reaching OpenWeatherMap.  It serves one
+ * request per connection and records the path and query of each.
+ */
+class StandInServer {
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    private final List<String> mRequests = Collections.synchronizedList(new ArrayList<String>());
+    private volatile int mStatus = 200;
+    private volatile byte[] mBody = new byte[0];
+
+    StandInServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "StandInServer");
+        mThread.start();
+    }
+
+    /**
+     * @param path the path and leading part of the query, e.g. "/group?"
+     */
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    void setResponse(int status, String body) throws IOException {
+        mStatus = status;
+        mBody = body.getBytes("UTF-8");
+    }
+
+    /**
+     * @return the request targets received so far, oldest first
+     */
+    List<String> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by shutdown()
+                return;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                String requestLine = reader.readLine();
+                if (requestLine != null) {
+                    // "GET /group?id=1,2 HTTP/1.1"
+                    String[] parts = requestLine.split(" ");
+                    mRequests.add(parts.length > 1 ? parts[1] : requestLine);
+                }
+                String header;
+                while ((header = reader.readLine()) != null && !header.isEmpty()) {
+                    // Headers are not needed
+                }
+                byte[] body = mBody;
+                String head = "HTTP/1.1 " + mStatus + " Stand-in\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: close\r\n\r\n";
+                OutputStream out = socket.getOutputStream();
+                out.write(head.getBytes("UTF-8"));
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                // The client went away; serve the next one
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it
+                }
+            }
+        }
+    }
+}
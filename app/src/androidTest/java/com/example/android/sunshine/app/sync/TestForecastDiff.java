@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Checks that ForecastDiff passes on exactly the days that are new or differ from what the
+    provider stores, reading through a ContentProviderClient as the sync adapter does.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+    private ContentProviderClient mProvider;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        mProvider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.release();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ContentValues day(int offset, double max) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                System.currentTimeMillis() + offset * DateUtils.DAY_IN_MILLIS));
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 12.0);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        // Parsed as an int, stored as a REAL; the same value must not count as a change
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 72);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1017.5);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.1);
+        values.put(WeatherEntry.COLUMN_DEGREES, 250.0);
+        return values;
+    }
+
+    public void testChangedDays() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{day(0, 21.0), day(1, 22.0)});
+
+        ContentValues unchanged = day(0, 21.0);
+        ContentValues changed = day(1, 23.5);
+        ContentValues added = day(2, 24.0);
+        List<ContentValues> changedDays = ForecastDiff.changedDays(mProvider, mLocationId,
+                Arrays.asList(unchanged, changed, added));
+        assertEquals(Arrays.asList(changed, added), changedDays);
+    }
+
+    public void testNothingStored() {
+        List<ContentValues> days = Arrays.asList(day(0, 21.0), day(1, 22.0));
+        assertEquals("Error: Every day is new when nothing is stored",
+                days, ForecastDiff.changedDays(mProvider, mLocationId, days));
+    }
+
+    public void testNothingChanged() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{day(0, 21.0), day(1, 22.0)});
+        assertTrue(ForecastDiff.changedDays(mProvider, mLocationId,
+                Arrays.asList(day(0, 21.0), day(1, 22.0))).isEmpty());
+        assertTrue(ForecastDiff.changedDays(mProvider, mLocationId,
+                new ArrayList<ContentValues>()).isEmpty());
+    }
+
+    public void testOtherLocationIsIgnored() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{day(0, 21.0)});
+        ContentValues elsewhere = day(0, 21.0);
+        elsewhere.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId + 1);
+        assertEquals(Collections.singletonList(elsewhere), ForecastDiff.changedDays(mProvider,
+                mLocationId + 1, Collections.singletonList(elsewhere)));
+    }
+}
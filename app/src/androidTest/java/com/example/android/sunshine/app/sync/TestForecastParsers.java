@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/*
+    Feeds the same payloads to the streaming and the tree parser and checks they agree, on the
+    rows they produce and on the exception they throw.  Everything downstream of the parse
+    assumes the choice of parser makes no difference.
+ */
+public class TestForecastParsers extends AndroidTestCase {
+
+    private static final String DAY = "{\"dt\":1419033600,\"pressure\":1017.5,\"humidity\":72.6,"
+            + "\"speed\":3.1,\"deg\":250,\"temp\":{\"day\":18.0,\"max\":21.0,\"min\":12.0},"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\"}]}";
+    private static final String CITY = "\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lat\":37.3861,\"lon\":-122.0839},\"country\":\"US\"}";
+
+    private static String forecast(String cod) {
+        return "{\"cod\":" + cod + ",\"message\":0.01," + CITY + ",\"cnt\":2,\"list\":["
+                + DAY + "," + DAY.replace("\"id\":800", "\"id\":500") + "]}";
+    }
+
+    private static ParsedForecast parse(ForecastParser parser, String payload)
+            throws IOException, JSONException {
+        return parser.parse(new ByteArrayInputStream(payload.getBytes("UTF-8")));
+    }
+
+    private static void assertSameForecast(ParsedForecast expected, ParsedForecast actual) {
+        assertEquals(expected.getErrorCode(), actual.getErrorCode());
+        assertEquals(expected.getCityId(), actual.getCityId());
+        assertEquals(expected.getCityName(), actual.getCityName());
+        assertEquals(expected.getCityLatitude(), actual.getCityLatitude());
+        assertEquals(expected.getCityLongitude(), actual.getCityLongitude());
+        assertEquals(expected.getDays(), actual.getDays());
+    }
+
+    /**
+     * Parses the payload with both parsers and checks they give the same forecast.
+     */
+    private static ParsedForecast assertParsersAgree(String payload) throws Exception {
+        ParsedForecast tree = parse(new JsonTreeForecastParser(), payload);
+        ParsedForecast stream = parse(new JsonStreamForecastParser(), payload);
+        assertSameForecast(tree, stream);
+        return tree;
+    }
+
+    /**
+     * Parses the payload with both parsers and checks they throw the same kind of exception.
+     */
+    private static void assertParsersFail(String payload, Class<? extends Exception> expected) {
+        ForecastParser[] parsers = {new JsonTreeForecastParser(), new JsonStreamForecastParser()};
+        for (ForecastParser parser : parsers) {
+            try {
+                parse(parser, payload);
+                fail(parser.getClass().getSimpleName() + " should have failed on " + payload);
+            } catch (Exception e) {
+                assertTrue(parser.getClass().getSimpleName() + " threw " + e,
+                        expected.isInstance(e));
+            }
+        }
+    }
+
+    public void testForecast() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ParsedForecast forecast = assertParsersAgree(forecast("\"200\""));
+        assertEquals(HttpURLConnection.HTTP_OK, forecast.getErrorCode());
+        assertEquals(5375480L, forecast.getCityId());
+        assertEquals(2, forecast.getDays().size());
+    }
+
+    public void testCodAsStringOrNumber() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        assertSameForecast(assertParsersAgree(forecast("\"200\"")),
+                assertParsersAgree(forecast("200")));
+    }
+
+    public void testNotFound() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ParsedForecast forecast = assertParsersAgree(
+                "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.getErrorCode());
+        assertTrue(forecast.getDays().isEmpty());
+    }
+
+    public void testMissingWeather() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        String day = "{\"pressure\":1017.5,\"humidity\":72,\"speed\":3.1,\"deg\":250,"
+                + "\"temp\":{\"max\":21.0,\"min\":12.0}}";
+        assertParsersFail("{\"cod\":\"200\"," + CITY + ",\"list\":[" + day + "]}",
+                JSONException.class);
+    }
+
+    public void testTruncated() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        String payload = forecast("\"200\"");
+        assertParsersFail(payload.substring(0, payload.length() / 2), JSONException.class);
+    }
+
+    public void testEmpty() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        assertParsersFail("", EOFException.class);
+    }
+}
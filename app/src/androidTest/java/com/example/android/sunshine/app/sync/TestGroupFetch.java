@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+    Runs group fetches against a StandInServer serving canned group responses.  The classes
+    under test are package-private, which is why this test lives in the sync package.
+ */
+public class TestGroupFetch extends AndroidTestCase {
+    private static final long MOUNTAIN_VIEW_ID = 5375480L;
+    private static final long LONDON_ID = 2643743L;
+    private static final long PARIS_ID = 2988507L;
+    // Asked for but never answered, so it has to be fetched on its own
+    private static final long BERLIN_ID = 2950159L;
+
+    private StandInServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StandInServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String day(double max, double min, int weatherId) {
+        return "{\"pressure\":1017.0,\"humidity\":72,\"speed\":3.1,\"deg\":250,"
+                + "\"temp\":{\"max\":" + max + ",\"min\":" + min + "},"
+                + "\"weather\":[{\"id\":" + weatherId + ",\"main\":\"Clear\"}]}";
+    }
+
+    private static String city(long id, String name, String days) {
+        return "{\"cod\":\"200\",\"city\":{\"id\":" + id + ",\"name\":\"" + name + "\","
+                + "\"coord\":{\"lat\":1.5,\"lon\":2.5}},\"cnt\":2,\"list\":[" + days + "]}";
+    }
+
+    private Map<String, ForecastFetchTask.Result> fetch(Map<String, Long> cityIds) {
+        GroupForecastSource source = new GroupForecastSource(mServer.getUrl("/group?"), "key");
+        // No retries, so a failure shows up at once
+        return new GroupFetchTask(source, cityIds, new RetryPolicy(0, new Random())).call();
+    }
+
+    public void testGroupResponseIsSplitByCity() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mServer.setResponse(200, "{\"cnt\":4,\"list\":["
+                + city(MOUNTAIN_VIEW_ID, "Mountain View",
+                        day(21.0, 12.0, 800) + "," + day(23.0, 13.0, 801)) + ","
+                + city(LONDON_ID, "London", day(14.0, 8.0, 500)) + ","
+                + "{\"cod\":\"404\",\"city\":{\"id\":" + PARIS_ID + ",\"name\":\"Paris\","
+                + "\"coord\":{\"lat\":48.9,\"lon\":2.4}}},"
+                // A city that was not asked for is ignored
+                + city(1L, "Elsewhere", day(30.0, 20.0, 800))
+                + "]}");
+
+        Map<String, Long> cityIds = new LinkedHashMap<>();
+        cityIds.put("94043", MOUNTAIN_VIEW_ID);
+        cityIds.put("London, UK", LONDON_ID);
+        cityIds.put("Paris, FR", PARIS_ID);
+        cityIds.put("Berlin, DE", BERLIN_ID);
+        Map<String, ForecastFetchTask.Result> results = fetch(cityIds);
+
+        List<String> requests = mServer.getRequests();
+        assertEquals("Error: a group fetch should make exactly one request", 1, requests.size());
+        assertTrue("Error: the request should name every city: " + requests.get(0),
+                requests.get(0).contains("id=" + MOUNTAIN_VIEW_ID + "%2C" + LONDON_ID + "%2C"
+                        + PARIS_ID + "%2C" + BERLIN_ID));
+
+        assertEquals(3, results.size());
+        ForecastFetchTask.Result mountainView = results.get("94043");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, mountainView.status);
+        assertEquals("Mountain View", mountainView.forecast.getCityName());
+        assertEquals(MOUNTAIN_VIEW_ID, mountainView.forecast.getCityId());
+        assertEquals(2, mountainView.forecast.getDays().size());
+
+        ForecastFetchTask.Result london = results.get("London, UK");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, london.status);
+        assertEquals(1, london.forecast.getDays().size());
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, results.get("Paris, FR").status);
+        assertNull(results.get("Paris, FR").forecast);
+        assertFalse("Error: a city missing from the response should be left to a single fetch",
+                results.containsKey("Berlin, DE"));
+    }
+
+    public void testSyncFetchesGroupThenLeftOverCities() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        String preferred = Utility.getPreferredLocation(mContext);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String savedKey = mContext.getString(R.string.pref_saved_locations_key);
+        String saved = prefs.getString(savedKey, "");
+        StandInServer singleServer = new StandInServer();
+        final ForecastSource singleSource =
+                new OwmForecastSource(singleServer.getUrl("/daily?"), "key");
+        try {
+            deleteAllRecords();
+            Utility.setSavedLocations(mContext, Arrays.asList("London, UK", "Berlin, DE"));
+            // Every location has a city ID, so all of them are asked for in one group
+            SunshineSyncAdapter.addLocation(mContext, preferred, "Mountain View", 1.5, 2.5,
+                    MOUNTAIN_VIEW_ID);
+            SunshineSyncAdapter.addLocation(mContext, "London, UK", "London", 51.5, -0.1,
+                    LONDON_ID);
+            SunshineSyncAdapter.addLocation(mContext, "Berlin, DE", "Berlin", 52.5, 13.4,
+                    BERLIN_ID);
+
+            // The group response leaves Berlin out, so it is fetched on its own
+            mServer.setResponse(200, "{\"cnt\":2,\"list\":["
+                    + city(MOUNTAIN_VIEW_ID, "Mountain View",
+                            day(21.0, 12.0, 800) + "," + day(23.0, 13.0, 801)) + ","
+                    + city(LONDON_ID, "London", day(14.0, 8.0, 500) + "," + day(15.0, 9.0, 500))
+                    + "]}");
+            singleServer.setResponse(200, city(BERLIN_ID, "Berlin",
+                    day(18.0, 10.0, 800) + "," + day(19.0, 11.0, 801)));
+            SunshineSyncAdapter.setGroupForecastSource(
+                    new GroupForecastSource(mServer.getUrl("/group?"), "key"));
+            // Not an OwmForecastSource, so the sync fetches no 3-hourly series from OWM
+            SunshineSyncAdapter.setForecastSource(new ForecastSource() {
+                @Override
+                public Response fetch(String locationSetting, int numDays, String eTag,
+                                      String lastModified) throws IOException {
+                    return singleSource.fetch(locationSetting, numDays, eTag, lastModified);
+                }
+            });
+
+            sync();
+
+            List<String> groupRequests = mServer.getRequests();
+            assertEquals("Error: the grouped locations should take one request",
+                    1, groupRequests.size());
+            for (long cityId : new long[]{MOUNTAIN_VIEW_ID, LONDON_ID, BERLIN_ID}) {
+                assertTrue("Error: the group request should name city " + cityId + ": "
+                        + groupRequests.get(0),
+                        groupRequests.get(0).contains(Long.toString(cityId)));
+            }
+            List<String> singleRequests = singleServer.getRequests();
+            assertEquals("Error: only the city the group left out should be fetched alone",
+                    1, singleRequests.size());
+            assertTrue(singleRequests.get(0), singleRequests.get(0).contains("q=Berlin"));
+
+            for (String location : Arrays.asList(preferred, "London, UK", "Berlin, DE")) {
+                assertEquals("Error: the sync should store two days for " + location,
+                        2, countDays(location));
+            }
+            assertEquals(0, getLastDiagnostic(
+                    WeatherContract.SyncDiagnosticsEntry.COLUMN_SHORT_CIRCUITED));
+
+            // The same forecasts again change no row, so the sync skips the fan-out
+            long shortCircuitedCount = getLastDiagnostic(
+                    WeatherContract.SyncDiagnosticsEntry.COLUMN_SHORT_CIRCUITED_COUNT);
+            sync();
+            assertEquals("Error: a sync that changed nothing should count as short-circuited",
+                    1, getLastDiagnostic(
+                            WeatherContract.SyncDiagnosticsEntry.COLUMN_SHORT_CIRCUITED));
+            assertEquals(shortCircuitedCount + 1, getLastDiagnostic(
+                    WeatherContract.SyncDiagnosticsEntry.COLUMN_SHORT_CIRCUITED_COUNT));
+        } finally {
+            SunshineSyncAdapter.setGroupForecastSource(null);
+            SunshineSyncAdapter.setForecastSource(null);
+            singleServer.shutdown();
+            prefs.edit().putString(savedKey, saved).commit();
+            mContext.getSharedPreferences("sync_coalescer", Context.MODE_PRIVATE).edit().clear()
+                    .commit();
+            deleteAllRecords();
+        }
+    }
+
+    private void sync() {
+        ContentProviderClient provider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            new SunshineSyncAdapter(mContext, false).onPerformSync(
+                    new Account("stand-in", mContext.getString(R.string.sync_account_type)),
+                    new Bundle(), WeatherContract.CONTENT_AUTHORITY, provider, new SyncResult());
+        } finally {
+            provider.release();
+        }
+    }
+
+    private long getLastDiagnostic(String column) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncDiagnosticsEntry.CONTENT_URI, new String[]{column}, null, null,
+                null);
+        try {
+            assertTrue("Error: no sync was recorded", cursor.moveToLast());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countDays(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(location), null, null, null,
+                null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null,
+                null);
+    }
+
+    public void testServerErrorFailsWholeGroup() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mServer.setResponse(503, "");
+
+        Map<String, Long> cityIds = new LinkedHashMap<>();
+        cityIds.put("94043", MOUNTAIN_VIEW_ID);
+        cityIds.put("London, UK", LONDON_ID);
+        Map<String, ForecastFetchTask.Result> results = fetch(cityIds);
+
+        assertEquals(2, results.size());
+        for (ForecastFetchTask.Result result : results.values()) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.status);
+            assertTrue(result.ioFailure);
+        }
+    }
+
+    public void testMalformedGroupFallsBackToSingleFetches() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // A city that claims success but has no days
+        mServer.setResponse(200, "{\"cnt\":1,\"list\":[{\"cod\":\"200\",\"city\":{\"id\":"
+                + MOUNTAIN_VIEW_ID + ",\"name\":\"Mountain View\","
+                + "\"coord\":{\"lat\":1.5,\"lon\":2.5}}}]}");
+
+        Map<String, Long> cityIds = new LinkedHashMap<>();
+        cityIds.put("94043", MOUNTAIN_VIEW_ID);
+        cityIds.put("London, UK", LONDON_ID);
+        assertTrue(fetch(cityIds).isEmpty());
+    }
+}
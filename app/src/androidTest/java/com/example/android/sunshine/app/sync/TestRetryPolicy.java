@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/*
+    Checks RetryPolicy's limits and delays, and that ForecastFetchTask spends the retry budget
+    on failures worth retrying only.
+ */
+public class TestRetryPolicy extends AndroidTestCase {
+    // Fetches two days, so the task never makes a conditional request and never needs the
+    // provider
+    private static final int NUM_DAYS = 2;
+
+    // Makes every delay zero, so retries don't slow the test down
+    private static class NoJitter extends Random {
+        @Override
+        public double nextDouble() {
+            return 0;
+        }
+
+        @Override
+        public int nextInt(int n) {
+            return 0;
+        }
+    }
+
+    /**
+     * Answers every request with the same status and body, and counts the requests.
+     */
+    private static class CannedSource implements ForecastSource {
+        final int mResponseCode;
+        final String mBody;
+        int mFetches;
+
+        CannedSource(int responseCode, String body) {
+            mResponseCode = responseCode;
+            mBody = body;
+        }
+
+        @Override
+        public Response fetch(String locationSetting, int numDays, String eTag,
+                              String lastModified) {
+            mFetches++;
+            return new Response() {
+                @Override
+                public int getResponseCode() {
+                    return mResponseCode;
+                }
+
+                @Override
+                public InputStream getBody() throws IOException {
+                    return new ByteArrayInputStream(mBody.getBytes("UTF-8"));
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public long getWireBytes() {
+                    return mBody.length();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    private ForecastFetchTask.Result fetch(CannedSource source, RetryPolicy retryPolicy) {
+        return new ForecastFetchTask(mContext, source, "94043", new JsonTreeForecastParser(),
+                retryPolicy, NUM_DAYS).call();
+    }
+
+    public void testAttemptsPerRequest() {
+        RetryPolicy policy = new RetryPolicy(100, new NoJitter());
+        for (int failed = 1; failed < RetryPolicy.MAX_ATTEMPTS; failed++) {
+            assertTrue(policy.shouldRetry(failed));
+        }
+        assertFalse("Error: A request was retried past MAX_ATTEMPTS",
+                policy.shouldRetry(RetryPolicy.MAX_ATTEMPTS));
+    }
+
+    public void testBudgetIsShared() {
+        RetryPolicy policy = new RetryPolicy(2, new NoJitter());
+        // Two different requests each take one retry; a third finds the budget spent
+        assertTrue(policy.shouldRetry(1));
+        assertTrue(policy.shouldRetry(1));
+        assertFalse("Error: A retry was allowed past the sync's budget", policy.shouldRetry(1));
+    }
+
+    public void testDelays() {
+        Random random = new Random(42);
+        RetryPolicy policy = new RetryPolicy(RetryPolicy.SYNC_RETRY_BUDGET, random);
+        for (int failed = 1; failed <= 10; failed++) {
+            long ceiling = Math.min(RetryPolicy.MAX_DELAY_MILLIS,
+                    RetryPolicy.BASE_DELAY_MILLIS << (failed - 1));
+            for (int i = 0; i < 20; i++) {
+                long delay = policy.getDelayMillis(failed);
+                assertTrue("Error: Delay " + delay + " out of range for attempt " + failed,
+                        delay >= 0 && delay <= ceiling);
+            }
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        long delayUntil = policy.getDelayUntil(0);
+        assertTrue("Error: Rescheduled sooner than MIN_RESCHEDULE_SECONDS",
+                delayUntil >= now + RetryPolicy.MIN_RESCHEDULE_SECONDS);
+        assertTrue("Error: Retry-After was not honored",
+                policy.getDelayUntil(3600) >= now + 3600);
+    }
+
+    public void testServerErrorIsRetried() {
+        CannedSource source = new CannedSource(HttpURLConnection.HTTP_UNAVAILABLE, "");
+        ForecastFetchTask.Result result = fetch(source, new RetryPolicy(1, new NoJitter()));
+        assertEquals("Error: A 503 should be tried again while the budget lasts",
+                2, source.mFetches);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.status);
+        assertTrue(result.ioFailure);
+    }
+
+    public void testNotFoundIsFinal() {
+        RetryPolicy policy = new RetryPolicy(1, new NoJitter());
+        CannedSource source = new CannedSource(HttpURLConnection.HTTP_NOT_FOUND,
+                "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+        ForecastFetchTask.Result result = fetch(source, policy);
+        assertEquals(1, source.mFetches);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, result.status);
+        assertFalse(result.ioFailure);
+        assertTrue("Error: A 404 spent the retry budget", policy.shouldRetry(1));
+    }
+
+    public void testClientErrorIsFinal() {
+        RetryPolicy policy = new RetryPolicy(1, new NoJitter());
+        CannedSource source = new CannedSource(HttpURLConnection.HTTP_UNAUTHORIZED,
+                "{\"cod\":401,\"message\":\"Invalid API key\"}");
+        ForecastFetchTask.Result result = fetch(source, policy);
+        assertEquals(1, source.mFetches);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, result.status);
+        assertFalse(result.ioFailure);
+        assertTrue("Error: A 401 spent the retry budget", policy.shouldRetry(1));
+
+        // The same error in the body of a 200 is just as final
+        source = new CannedSource(HttpURLConnection.HTTP_OK,
+                "{\"cod\":\"401\",\"message\":\"Invalid API key\"}");
+        result = fetch(source, policy);
+        assertEquals(1, source.mFetches);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, result.status);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Exercises SyncCoalescer's bookkeeping by playing the sync adapter's part: each test starts
+    and finishes the "sync" itself, so no real sync is ever requested.
+ */
+public class TestSyncCoalescer extends AndroidTestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private String mLocation;
+    // The saved locations the test replaced, restored afterwards
+    private String mSavedLocations;
+
+    /**
+     * Records the first result it is told, on the main thread.
+     */
+    private static class ResultListener implements SyncCoalescer.Listener {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile int mResult = -1;
+
+        @Override
+        public void onSyncResult(int result) {
+            mResult = result;
+            mDone.countDown();
+        }
+
+        int await() throws InterruptedException {
+            assertTrue("Error: Listener was never called",
+                    mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return mResult;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearFreshness();
+        mLocation = Utility.getPreferredLocation(mContext);
+        // Full requests need every saved location fresh; start with none besides the preferred
+        mSavedLocations = getDefaultPrefs().getString(getSavedLocationsKey(), "");
+        getDefaultPrefs().edit().remove(getSavedLocationsKey()).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getDefaultPrefs().edit().putString(getSavedLocationsKey(), mSavedLocations).commit();
+        clearFreshness();
+        super.tearDown();
+    }
+
+    private SharedPreferences getDefaultPrefs() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private String getSavedLocationsKey() {
+        return mContext.getString(R.string.pref_saved_locations_key);
+    }
+
+    private void clearFreshness() {
+        mContext.getSharedPreferences("sync_coalescer", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    public void testFreshness() {
+        assertFalse(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+
+        List<String> locations = Collections.singletonList(mLocation);
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_TODAY);
+        SyncCoalescer.onSyncFinished(mContext, locations, false);
+        assertTrue("Error: A shallow sync should answer a shallow request",
+                SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_TODAY));
+        assertFalse("Error: A shallow sync should not answer a full request",
+                SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        SyncCoalescer.onSyncFinished(mContext, locations, false);
+        assertTrue(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+        assertTrue("Error: A full sync should answer a shallow request too",
+                SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_TODAY));
+
+        // A stale sync is not fresh, nor is one from the future
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis() - SyncCoalescer.FRESHNESS_MILLIS - 1);
+        assertFalse(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis() + 60000);
+        assertFalse(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+
+        // Rows brought up to date outside a sync for the first days only, as a promoted
+        // prefetch, answer shallow requests but not full ones
+        clearFreshness();
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_TODAY,
+                System.currentTimeMillis());
+        assertTrue(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_TODAY));
+        assertFalse(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+
+        // Locations that failed to sync are not marked
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        SyncCoalescer.onSyncFinished(mContext, Collections.<String>emptyList(), false);
+        assertFalse(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+    }
+
+    public void testFreshRequestIsAnsweredFromDatabase() throws Exception {
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis());
+        ResultListener listener = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, listener);
+        assertEquals(SyncCoalescer.RESULT_FROM_DATABASE, listener.await());
+    }
+
+    public void testRequestAttachesToSyncInFlight() throws Exception {
+        List<String> locations = Collections.singletonList(mLocation);
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        ResultListener first = new ResultListener();
+        ResultListener second = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, first);
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_TODAY, second);
+        assertEquals("Error: Listener was told before the sync finished", 1, first.mDone.getCount());
+
+        SyncCoalescer.onSyncFinished(mContext, locations, true);
+        assertEquals(SyncCoalescer.RESULT_CHANGED, first.await());
+        assertEquals(SyncCoalescer.RESULT_CHANGED, second.await());
+    }
+
+    public void testSavedLocationsMustBeFresh() throws Exception {
+        String saved = mLocation + "-saved";
+        Utility.setSavedLocations(mContext, Collections.singletonList(saved));
+        List<String> preferredOnly = Collections.singletonList(mLocation);
+
+        // A sync of the preferred location alone is running; a full request needs the saved
+        // location too, so it waits for a follow-up instead of attaching
+        SyncCoalescer.onSyncStarted(preferredOnly, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        ResultListener listener = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, listener);
+
+        // Stand in for the follow-up, so it is answered from the database
+        SyncCoalescer.markSynced(mContext, saved, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis());
+        SyncCoalescer.onSyncFinished(mContext, preferredOnly, true);
+        assertEquals("Error: A request needing a saved location was answered without it",
+                SyncCoalescer.RESULT_FROM_DATABASE, listener.await());
+
+        // With every saved location fresh, a full request needs no sync at all
+        SyncCoalescer.onSyncStarted(Arrays.asList(mLocation, saved),
+                SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        SyncCoalescer.onSyncFinished(mContext, Arrays.asList(mLocation, saved), false);
+        ResultListener fresh = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, fresh);
+        assertEquals(SyncCoalescer.RESULT_FROM_DATABASE, fresh.await());
+    }
+
+    public void testSyncThatDiesReleasesCallers() throws Exception {
+        List<String> locations = Collections.singletonList(mLocation);
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        ResultListener attached = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, attached);
+
+        // The sync throws before it reports onSyncFinished; the adapter's finally ends it
+        SyncCoalescer.onSyncEnded(mContext);
+        assertEquals(SyncCoalescer.RESULT_UNCHANGED, attached.await());
+
+        // A later caller is no longer attached to the dead sync
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis());
+        ResultListener later = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, later);
+        assertEquals(SyncCoalescer.RESULT_FROM_DATABASE, later.await());
+
+        // Ending a sync that did finish changes nothing
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+        SyncCoalescer.onSyncFinished(mContext, locations, true);
+        SyncCoalescer.onSyncEnded(mContext);
+        assertTrue(SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+    }
+
+    public void testStaleLocationOverridesFreshness() throws Exception {
+        List<String> locations = Collections.singletonList(mLocation);
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis());
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_FULL);
+
+        // The provider found the rows stale; the coalescer must not answer from its own record
+        SyncCoalescer.requestStale(mContext, mLocation);
+        assertFalse("Error: A location the provider found stale was still fresh",
+                SyncCoalescer.isFresh(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+        ResultListener listener = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, listener);
+        SyncCoalescer.onSyncFinished(mContext, locations, true);
+        assertEquals(SyncCoalescer.RESULT_CHANGED, listener.await());
+
+        // No sync fetches a location that is not saved, so its record is left alone
+        String unsaved = mLocation + "-unsaved";
+        SyncCoalescer.markSynced(mContext, unsaved, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis());
+        SyncCoalescer.requestStale(mContext, unsaved);
+        assertTrue(SyncCoalescer.isFresh(mContext, unsaved, SunshineSyncAdapter.SYNC_DEPTH_FULL));
+    }
+
+    public void testFullRequestOutlivesShallowSync() throws Exception {
+        List<String> locations = Collections.singletonList(mLocation);
+        SyncCoalescer.onSyncStarted(locations, SunshineSyncAdapter.SYNC_DEPTH_TODAY);
+        ResultListener listener = new ResultListener();
+        SyncCoalescer.request(mContext, SunshineSyncAdapter.SYNC_DEPTH_FULL, listener);
+
+        // Stand in for a full sync that ran meanwhile, so the follow-up the shallow sync asks
+        // for is answered from the database rather than by a real sync
+        SyncCoalescer.markSynced(mContext, mLocation, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                System.currentTimeMillis());
+        SyncCoalescer.onSyncFinished(mContext, locations, true);
+        assertEquals("Error: A full request was answered by the shallow sync",
+                SyncCoalescer.RESULT_FROM_DATABASE, listener.await());
+    }
+}
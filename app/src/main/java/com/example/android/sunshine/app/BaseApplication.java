@@ -4,6 +4,7 @@ import android.app.Application;
 import android.content.Intent;
 
 import com.example.android.sunshine.app.service.WearReceiverService;
+import com.example.android.sunshine.app.sync.ForecastReplayService;
 
 /**
  * Created by kyleparker on 12/3/2015.
@@ -15,5 +16,8 @@ public class BaseApplication extends Application {
 
         Intent intent = new Intent(this, WearReceiverService.class);
         startService(intent);
+
+        // If the database was wiped, show the last downloaded forecast while a sync catches up
+        ForecastReplayService.replayIfEmpty(this);
     }
 }
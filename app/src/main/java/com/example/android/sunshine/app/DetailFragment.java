@@ -40,6 +40,7 @@ import android.widget.TextView;
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
  * A placeholder fragment containing a simple view.
@@ -174,7 +175,8 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             // creating a Cursor for the data being displayed.
             return new CursorLoader(
                     getActivity(),
-                    mUri,
+                    WeatherEntry.withMaxAge(mUri,
+                            SunshineSyncAdapter.getForecastMaxAgeMillis(getActivity())),
                     DETAIL_COLUMNS,
                     null,
                     null,
@@ -27,6 +27,8 @@ import android.util.AttributeSet;
 import android.widget.Button;
 import android.widget.EditText;
 
+import com.example.android.sunshine.app.sync.ForecastPrefetcher;
+
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
@@ -78,7 +80,22 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+                // Start fetching the candidate once the user pauses typing, so the forecast
+                // is ready by the time they press OK
+                if (s.length() >= mMinLength) {
+                    ForecastPrefetcher.schedule(getContext(), s.toString());
+                } else {
+                    ForecastPrefetcher.cancel();
+                }
             }
         });
     }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (!positiveResult) {
+            ForecastPrefetcher.cancel();
+        }
+        super.onDialogClosed(positiveResult);
+    }
 }
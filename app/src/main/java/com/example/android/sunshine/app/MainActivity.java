@@ -36,6 +36,7 @@ import android.view.View;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -162,6 +163,9 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             // Store regID as null
         }
 
+        // Let the adaptive sync scheduler know someone is looking at the forecast
+        SyncScheduler.recordViewed(this);
+
         String location = Utility.getPreferredLocation(this);
         // update the location in our second pane using the fragment manager
         if (location != null && !location.equals(mLocation)) {
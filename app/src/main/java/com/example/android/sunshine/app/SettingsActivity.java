@@ -16,17 +16,24 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.preference.CheckBoxPreference;
+import android.preference.EditTextPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastPrefetcher;
+import com.example.android.sunshine.app.sync.LocationStatusStore;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -37,7 +44,8 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
  * API Guide</a> for more information on developing a Settings UI.
  */
 public class SettingsActivity extends PreferenceActivity
-        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener,
+        LocationStatusStore.Listener {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -50,6 +58,14 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+
+        // The saved locations are written through Utility, which drops blanks and repeats, so
+        // the preference itself doesn't persist; give it the stored list to edit
+        EditTextPreference savedLocations = (EditTextPreference) findPreference(
+                getString(R.string.pref_saved_locations_key));
+        savedLocations.setText(PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(savedLocations.getKey(), ""));
+        bindPreferenceSummaryToValue(savedLocations);
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -57,6 +73,8 @@ public class SettingsActivity extends PreferenceActivity
     protected void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.registerOnSharedPreferenceChangeListener(this);
+        LocationStatusStore.addListener(this);
+        updateAdaptiveSyncSummary();
         super.onResume();
     }
 
@@ -65,6 +83,7 @@ public class SettingsActivity extends PreferenceActivity
     protected void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        LocationStatusStore.removeListener(this);
         super.onPause();
     }
 
@@ -84,6 +103,17 @@ public class SettingsActivity extends PreferenceActivity
                         .getString(preference.getKey(), ""));
     }
 
+    /**
+     * Shows the interval the adaptive schedule last chose, and why, under the enabled
+     * preference.  The scheduler decides after syncs, so this is refreshed on resume.
+     */
+    private void updateAdaptiveSyncSummary() {
+        CheckBoxPreference adaptiveSync = (CheckBoxPreference) findPreference(
+                getString(R.string.pref_adaptive_sync_key));
+        adaptiveSync.setSummaryOn(getString(R.string.pref_adaptive_sync_status,
+                SyncScheduler.getLastInterval(this) / 60, SyncScheduler.getLastReason(this)));
+    }
+
     private void setPreferenceSummary(Preference preference, Object value) {
         String stringValue = value.toString();
         String key = preference.getKey();
@@ -96,6 +126,10 @@ public class SettingsActivity extends PreferenceActivity
             if (prefIndex >= 0) {
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
             }
+        } else if (key.equals(getString(R.string.pref_saved_locations_key))) {
+            preference.setSummary(stringValue.length() == 0
+                    ? getString(R.string.pref_saved_locations_none)
+                    : stringValue.replace("\n", ", "));
         } else if (key.equals(getString(R.string.pref_location_key))) {
             @SunshineSyncAdapter.LocationStatus int status = Utility.getLocationStatus(this);
             switch (status) {
@@ -123,6 +157,14 @@ public class SettingsActivity extends PreferenceActivity
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_saved_locations_key))) {
+            String saved = Utility.setSavedLocations(this,
+                    Utility.parseSavedLocations(value.toString()));
+            ((EditTextPreference) preference).setText(saved);
+            setPreferenceSummary(preference, saved);
+            // The text is already set to the cleaned up list
+            return false;
+        }
         setPreferenceSummary(preference, value);
         return true;
     }
@@ -135,21 +177,46 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
+            // If the new location was prefetched while it was typed, show it straight away;
+            // the sync below still brings its 3-hourly rows and the other saved locations
+            ForecastPrefetcher.promote(this, Utility.getPreferredLocation(this));
+            SunshineSyncAdapter.syncImmediately(this);
+        } else if ( key.equals(getString(R.string.pref_saved_locations_key)) ) {
+            // fetch forecasts for any location that was added
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
             SunshineSyncAdapter.syncImmediately(this);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
-            // our location status has changed.  Update the summary accordingly
-            Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-            bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        } else if ( key.equals(getString(R.string.pref_adaptive_sync_key)) ) {
+            // switch the periodic sync between the fixed and the adaptive interval; this
+            // queries the database, so keep it off the UI thread
+            final Context context = getApplicationContext();
+            new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... params) {
+                    SyncScheduler.reschedule(context);
+                    return null;
+                }
+
+                @Override
+                protected void onPostExecute(Void result) {
+                    updateAdaptiveSyncSummary();
+                }
+            }.execute();
         }
     }
 
+    // Our location status has changed.  Update the summary accordingly
+    @Override
+    public void onLocationStatusChanged(@SunshineSyncAdapter.LocationStatus int status) {
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        bindPreferenceSummaryToValue(locationPreference);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -22,20 +22,88 @@ import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
 
+import com.example.android.sunshine.app.sync.LocationStatusStore;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
+    // Location settings can contain commas ("London, UK"), so saved locations are one per line
+    private static final String SAVED_LOCATIONS_SEPARATOR = "\n";
+
+    // Name of the preference file holding the last sync status of each location
+    public static final String LOCATION_STATUS_PREFS_NAME = "location_status";
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Returns every location the sync adapter keeps a forecast for: the preferred location
+     * first, followed by the saved locations in the order they were added.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return the location settings to sync, without duplicates
+     */
+    public static List<String> getSavedLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), "");
+
+        List<String> locations = new ArrayList<>();
+        locations.add(getPreferredLocation(context));
+        for (String location : saved.split(SAVED_LOCATIONS_SEPARATOR)) {
+            location = location.trim();
+            if (location.length() > 0 && !locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Replaces the list of saved locations synced alongside the preferred location.  Blank
+     * entries and repeats are dropped.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param locations the location settings to keep forecasts for
+     * @return the saved locations as stored, one per line
+     */
+    public static String setSavedLocations(Context context, List<String> locations) {
+        List<String> kept = new ArrayList<>();
+        StringBuilder saved = new StringBuilder();
+        for (String location : locations) {
+            location = location.trim();
+            if (location.length() == 0 || kept.contains(location)) {
+                continue;
+            }
+            if (saved.length() > 0) {
+                saved.append(SAVED_LOCATIONS_SEPARATOR);
+            }
+            saved.append(location);
+            kept.add(location);
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_saved_locations_key), saved.toString())
+                .apply();
+        return saved.toString();
+    }
+
+    /**
+     * Splits the text of the saved locations preference into location settings.
+     */
+    public static List<String> parseSavedLocations(String saved) {
+        return Arrays.asList(saved.split(SAVED_LOCATIONS_SEPARATOR));
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -554,15 +622,26 @@ public class Utility {
     }
 
     /**
-     *
-     * @param c Context used to get the SharedPreferences
+     * Reads the in-memory status held by {@link LocationStatusStore}.
+     * @param c Context used to get the SharedPreferences on first use
      * @return the location status integer type
      */
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return LocationStatusStore.getPreferredStatus(c);
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences on first use
+     * @param locationSetting the location to look up
+     * @return the status of the last sync of that location
+     */
+    @SuppressWarnings("ResourceType")
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c, String locationSetting){
+        return LocationStatusStore.getStatus(c, locationSetting);
     }
 
     /**
@@ -570,9 +649,6 @@ public class Utility {
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        LocationStatusStore.resetPreferredStatus(c);
     }
 }
\ No newline at end of file
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes many rows into one table through a single compiled INSERT.  SQLiteDatabase.insert
+ * builds the SQL, compiles it and copies the values again for every row; here the statement is
+ * compiled once and each value is bound as a primitive.
+ *
+ * <p>Rows come either as ContentValues, one at a time, or as a columnar batch: a Bundle holding
+ * one array per column, all of the same length (see {@link ColumnBatch}).  A column a row
+ * leaves out is bound as null; keys that are not columns of the table are ignored.  A row that
+ * breaks a constraint is skipped, as SQLiteDatabase.insert would skip it.  Weather dates are
+ * normalized on the way in.
+ *
+ * <p>The caller owns the transaction and must {@link #close} the inserter.  Not thread safe.
+ */
+class BulkInserter {
+
+    static final int TYPE_LONG = 0;
+    static final int TYPE_DOUBLE = 1;
+    static final int TYPE_STRING = 2;
+
+    /**
+     * The columns of one table, in the order the INSERT binds them.
+     */
+    static class Table {
+        final String name;
+        final String[] columns;
+        final int[] types;
+        // The column holding a date to normalize, or -1
+        final int dateColumn;
+
+        Table(String name, String[] columns, int[] types, String dateColumn) {
+            this.name = name;
+            this.columns = columns;
+            this.types = types;
+            int index = -1;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(dateColumn)) {
+                    index = i;
+                }
+            }
+            this.dateColumn = index;
+        }
+    }
+
+    static final Table WEATHER = new Table(WeatherEntry.TABLE_NAME,
+            new String[]{
+                    BaseColumns._ID,
+                    WeatherEntry.COLUMN_LOC_KEY,
+                    WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_WEATHER_ID,
+                    WeatherEntry.COLUMN_SHORT_DESC,
+                    WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE,
+                    WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherEntry.COLUMN_DEGREES},
+            new int[]{TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_STRING,
+                    TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE},
+            WeatherEntry.COLUMN_DATE);
+
+    static final Table HOURLY = new Table(HourlyEntry.TABLE_NAME,
+            new String[]{
+                    BaseColumns._ID,
+                    HourlyEntry.COLUMN_LOC_KEY,
+                    HourlyEntry.COLUMN_DATE_TIME,
+                    HourlyEntry.COLUMN_WEATHER_ID,
+                    HourlyEntry.COLUMN_SHORT_DESC,
+                    HourlyEntry.COLUMN_TEMP,
+                    HourlyEntry.COLUMN_HUMIDITY,
+                    HourlyEntry.COLUMN_PRESSURE,
+                    HourlyEntry.COLUMN_WIND_SPEED,
+                    HourlyEntry.COLUMN_DEGREES},
+            new int[]{TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_STRING,
+                    TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE},
+            null);
+
+    static final Table LOCATION = new Table(LocationEntry.TABLE_NAME,
+            new String[]{
+                    BaseColumns._ID,
+                    LocationEntry.COLUMN_LOCATION_SETTING,
+                    LocationEntry.COLUMN_CITY_NAME,
+                    LocationEntry.COLUMN_COORD_LAT,
+                    LocationEntry.COLUMN_COORD_LONG,
+                    LocationEntry.COLUMN_CITY_ID,
+                    LocationEntry.COLUMN_LAST_SYNCED,
+                    LocationEntry.COLUMN_VALIDATOR},
+            new int[]{TYPE_LONG, TYPE_STRING, TYPE_STRING, TYPE_DOUBLE, TYPE_DOUBLE,
+                    TYPE_LONG, TYPE_LONG, TYPE_STRING},
+            null);
+
+    private final Table mTable;
+    private final SQLiteStatement mStatement;
+    // Reused for every date normalized; Time is costly to create
+    private final Time mTime = new Time();
+    // The arrays of the columnar batch being inserted, by column; null where it has none
+    private Object[] mBatch;
+
+    BulkInserter(SQLiteDatabase db, Table table) {
+        mTable = table;
+        String[] placeholders = new String[table.columns.length];
+        for (int i = 0; i < placeholders.length; i++) {
+            placeholders[i] = "?";
+        }
+        mStatement = db.compileStatement("INSERT INTO " + table.name
+                + " (" + TextUtils.join(",", table.columns) + ") VALUES ("
+                + TextUtils.join(",", placeholders) + ")");
+    }
+
+    /**
+     * @return the row ID of the inserted row, or -1 if it was skipped
+     */
+    long insert(ContentValues values) {
+        mStatement.clearBindings();
+        for (int i = 0; i < mTable.columns.length; i++) {
+            Object value = values.get(mTable.columns[i]);
+            // Bind indexes start at 1
+            int index = i + 1;
+            if (value == null) {
+                mStatement.bindNull(index);
+            } else if (value instanceof Number) {
+                if (mTable.types[i] == TYPE_DOUBLE) {
+                    mStatement.bindDouble(index, ((Number) value).doubleValue());
+                } else if (i == mTable.dateColumn) {
+                    mStatement.bindLong(index, normalizeDate(((Number) value).longValue()));
+                } else {
+                    mStatement.bindLong(index, ((Number) value).longValue());
+                }
+            } else if (value instanceof Boolean) {
+                mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                mStatement.bindBlob(index, (byte[]) value);
+            } else if (i == mTable.dateColumn) {
+                // A date put as a String still has to be normalized, as getAsLong would read it
+                bindDate(index, value.toString());
+            } else {
+                // Column affinity converts it, as it would for SQLiteDatabase.insert
+                mStatement.bindString(index, value.toString());
+            }
+        }
+        return execute();
+    }
+
+    /**
+     * Takes a columnar batch, whose rows are then inserted with {@link #insertRow}.  The arrays
+     * may be long[], int[], double[], float[] or String[]; a String[] may hold nulls.
+     *
+     * @return the number of rows in the batch
+     * @throws IllegalArgumentException if the arrays differ in length or one has another type
+     */
+    int setBatch(Bundle batch) {
+        mBatch = new Object[mTable.columns.length];
+        int rows = -1;
+        for (int i = 0; i < mBatch.length; i++) {
+            Object array = batch.get(mTable.columns[i]);
+            if (array == null) {
+                continue;
+            }
+            int length;
+            if (array instanceof long[]) {
+                length = ((long[]) array).length;
+            } else if (array instanceof int[]) {
+                length = ((int[]) array).length;
+            } else if (array instanceof double[]) {
+                length = ((double[]) array).length;
+            } else if (array instanceof float[]) {
+                length = ((float[]) array).length;
+            } else if (array instanceof String[]) {
+                length = ((String[]) array).length;
+            } else {
+                throw new IllegalArgumentException("Column " + mTable.columns[i] + " is a "
+                        + array.getClass().getSimpleName());
+            }
+            if (rows != -1 && length != rows) {
+                throw new IllegalArgumentException("Column " + mTable.columns[i] + " has "
+                        + length + " rows, not " + rows);
+            }
+            rows = length;
+            mBatch[i] = array;
+        }
+        return Math.max(rows, 0);
+    }
+
+    /**
+     * Inserts one row of the batch taken by {@link #setBatch}.
+     *
+     * @return the row ID of the inserted row, or -1 if it was skipped
+     */
+    long insertRow(int row) {
+        mStatement.clearBindings();
+        for (int i = 0; i < mBatch.length; i++) {
+            Object array = mBatch[i];
+            int index = i + 1;
+            if (array == null) {
+                mStatement.bindNull(index);
+            } else if (array instanceof long[]) {
+                long value = ((long[]) array)[row];
+                mStatement.bindLong(index, i == mTable.dateColumn ? normalizeDate(value) : value);
+            } else if (array instanceof int[]) {
+                mStatement.bindLong(index, ((int[]) array)[row]);
+            } else if (array instanceof double[]) {
+                mStatement.bindDouble(index, ((double[]) array)[row]);
+            } else if (array instanceof float[]) {
+                mStatement.bindDouble(index, ((float[]) array)[row]);
+            } else {
+                String value = ((String[]) array)[row];
+                if (value == null) {
+                    mStatement.bindNull(index);
+                } else {
+                    mStatement.bindString(index, value);
+                }
+            }
+        }
+        return execute();
+    }
+
+    private void bindDate(int index, String value) {
+        try {
+            mStatement.bindLong(index, normalizeDate(Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            // Not a number; leave it to the column affinity like any other string
+            mStatement.bindString(index, value);
+        }
+    }
+
+    private long execute() {
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        }
+    }
+
+    // Same as WeatherContract.normalizeDate, without a new Time for every row
+    private long normalizeDate(long date) {
+        mTime.set(date);
+        int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+        return mTime.setJulianDay(julianDay);
+    }
+
+    void close() {
+        mStatement.close();
+        mBatch = null;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
+
+/**
+ * Rows for one table laid out by column: one array per column, all of the same length.  Where
+ * bulkInsert needs a ContentValues map per row, a batch carries one primitive array per column
+ * across the provider boundary, and the provider binds them straight into its compiled INSERT.
+ *
+ * <pre>
+ * new ColumnBatch()
+ *         .put(HourlyEntry.COLUMN_LOC_KEY, locationIds)
+ *         .put(HourlyEntry.COLUMN_DATE_TIME, times)
+ *         ...
+ *         .insert(resolver, HourlyEntry.CONTENT_URI);
+ * </pre>
+ *
+ * Columns left out are inserted as null.  Dates put into the weather date column are
+ * normalized by the provider, as they are for bulkInsert.  The columnar call needs Honeycomb
+ * through a ContentResolver and Jelly Bean MR1 through a ContentProviderClient; below that the
+ * batch is split into rows and goes through bulkInsert, with the same result.
+ */
+public class ColumnBatch {
+    private final Bundle mColumns = new Bundle();
+
+    public ColumnBatch put(String column, long[] values) {
+        mColumns.putLongArray(column, values);
+        return this;
+    }
+
+    public ColumnBatch put(String column, int[] values) {
+        mColumns.putIntArray(column, values);
+        return this;
+    }
+
+    public ColumnBatch put(String column, double[] values) {
+        mColumns.putDoubleArray(column, values);
+        return this;
+    }
+
+    /**
+     * @param values may hold nulls
+     */
+    public ColumnBatch put(String column, String[] values) {
+        mColumns.putStringArray(column, values);
+        return this;
+    }
+
+    /**
+     * @return the arrays, keyed by column name
+     */
+    public Bundle getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * @return the batch split into one ContentValues per row, as bulkInsert takes them
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = null;
+        for (String column : mColumns.keySet()) {
+            Object array = mColumns.get(column);
+            if (array instanceof long[]) {
+                long[] values = (long[]) array;
+                rows = ensureRows(rows, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    rows[i].put(column, values[i]);
+                }
+            } else if (array instanceof int[]) {
+                int[] values = (int[]) array;
+                rows = ensureRows(rows, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    rows[i].put(column, values[i]);
+                }
+            } else if (array instanceof double[]) {
+                double[] values = (double[]) array;
+                rows = ensureRows(rows, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    rows[i].put(column, values[i]);
+                }
+            } else if (array instanceof String[]) {
+                String[] values = (String[]) array;
+                rows = ensureRows(rows, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    rows[i].put(column, values[i]);
+                }
+            }
+        }
+        return rows != null ? rows : new ContentValues[0];
+    }
+
+    private static ContentValues[] ensureRows(ContentValues[] rows, int length) {
+        if (rows != null) {
+            if (rows.length != length) {
+                throw new IllegalArgumentException("Columns differ in length: " + rows.length
+                        + " and " + length);
+            }
+            return rows;
+        }
+        rows = new ContentValues[length];
+        for (int i = 0; i < length; i++) {
+            rows[i] = new ContentValues();
+        }
+        return rows;
+    }
+
+    /**
+     * Inserts the rows in one transaction, skipping those that break a constraint.
+     *
+     * @param uri the content URI of the table, as passed to bulkInsert
+     * @return the number of rows inserted
+     */
+    public int insert(ContentResolver resolver, Uri uri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return resolver.bulkInsert(uri, toContentValues());
+        }
+        return getInserted(callBulkInsert(resolver, uri));
+    }
+
+    /**
+     * Inserts the rows through a provider client, as {@link #insert(ContentResolver, Uri)}.
+     */
+    public int insert(ContentProviderClient provider, Uri uri) throws RemoteException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return provider.bulkInsert(uri, toContentValues());
+        }
+        return getInserted(callBulkInsert(provider, uri));
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bundle callBulkInsert(ContentResolver resolver, Uri uri) {
+        return resolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT, uri.toString(), mColumns);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private Bundle callBulkInsert(ContentProviderClient provider, Uri uri)
+            throws RemoteException {
+        return provider.call(WeatherContract.METHOD_BULK_INSERT, uri.toString(), mColumns);
+    }
+
+    private static int getInserted(Bundle result) {
+        return result != null ? result.getInt(WeatherContract.EXTRA_INSERTED) : 0;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncDiagnosticsEntry;
+
+/**
+ * Keeps the phase timings of the last {@link #CAPACITY} syncs in memory, so they can be read
+ * back through {@link SyncDiagnosticsEntry#CONTENT_URI}.  Nothing is persisted: the history
+ * starts over when the process does.
+ */
+public class SyncDiagnostics {
+    static final int CAPACITY = 64;
+
+    private static final ContentValues[] sRecords = new ContentValues[CAPACITY];
+    // Total number of syncs recorded; the next record goes to sCount % CAPACITY
+    private static long sCount;
+
+    private SyncDiagnostics() {
+    }
+
+    /**
+     * Adds the timings of one sync, overwriting the oldest once the buffer is full.
+     *
+     * @param values keyed by the {@link SyncDiagnosticsEntry} columns; missing columns read as 0
+     */
+    public static synchronized void record(ContentValues values) {
+        ContentValues copy = new ContentValues(values);
+        copy.put(SyncDiagnosticsEntry._ID, sCount);
+        sRecords[(int) (sCount % CAPACITY)] = copy;
+        sCount++;
+    }
+
+    /**
+     * @return the recorded syncs, oldest first, with the requested columns or all of them
+     */
+    static synchronized Cursor query(String[] projection) {
+        String[] columns = projection != null ? projection : SyncDiagnosticsEntry.COLUMNS;
+        int size = (int) Math.min(sCount, CAPACITY);
+        MatrixCursor cursor = new MatrixCursor(columns, size);
+        for (long i = sCount - size; i < sCount; i++) {
+            ContentValues record = sRecords[(int) (i % CAPACITY)];
+            Object[] row = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                Long value = record.getAsLong(columns[c]);
+                row[c] = value != null ? value : 0L;
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Forgets every recorded sync.  For tests.
+     */
+    static synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sRecords[i] = null;
+        }
+        sCount = 0;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the weather history out of the live weather table.  Days past their date are moved into
+ * the archive table rather than deleted, and as they age they are rolled up:
+ * <ul>
+ * <li>for {@link #DAY_ROWS_KEPT_DAYS} a day keeps its own row</li>
+ * <li>then whole weeks are rolled into one row each, kept until {@link #WEEK_ROWS_KEPT_DAYS}</li>
+ * <li>then those weeks are rolled into one row per month, kept for good</li>
+ * </ul>
+ * A rollup keeps the lowest min, the highest max, and the averages of the daily values weighted
+ * by the days each row covers, so rolling weeks into months averages the same days as rolling
+ * the days would have.  Rows are moved and rolled up with set statements, one per batch of rows,
+ * never one per row.  The caller owns the transaction.
+ */
+class WeatherArchive {
+
+    static final long DAY_ROWS_KEPT_DAYS = 35;
+    static final long WEEK_ROWS_KEPT_DAYS = 182;
+
+    // Julian day of Monday, December 29th 1969; weeks are counted from it
+    private static final int MONDAY_JULIAN_DAY = 2440585;
+
+    private static final String ARCHIVE_COLUMNS = ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_PERIOD + ", " +
+            ArchiveEntry.COLUMN_DATE + ", " +
+            ArchiveEntry.COLUMN_DAYS + ", " +
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+            ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+            ArchiveEntry.COLUMN_AVG_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_AVG_MAX_TEMP + ", " +
+            ArchiveEntry.COLUMN_HUMIDITY + ", " +
+            ArchiveEntry.COLUMN_PRESSURE + ", " +
+            ArchiveEntry.COLUMN_WIND_SPEED;
+
+    // A day's row in the archive, made from its weather row
+    private static final String DAY_COLUMNS = WeatherEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.PERIOD_DAY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            "1, " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED;
+
+    private static final String[] ROLLUP_PROJECTION = {
+            ArchiveEntry.COLUMN_DATE,
+            ArchiveEntry.COLUMN_DAYS,
+            ArchiveEntry.COLUMN_MIN_TEMP,
+            ArchiveEntry.COLUMN_MAX_TEMP,
+            ArchiveEntry.COLUMN_AVG_MIN_TEMP,
+            ArchiveEntry.COLUMN_AVG_MAX_TEMP,
+            ArchiveEntry.COLUMN_HUMIDITY,
+            ArchiveEntry.COLUMN_PRESSURE,
+            ArchiveEntry.COLUMN_WIND_SPEED
+    };
+
+    // archive.location_id = ? AND archive.period = ? AND archive.date < ?
+    private static final String sPeriodBeforeSelection =
+            ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    ArchiveEntry.COLUMN_PERIOD + " = ? AND " +
+                    ArchiveEntry.COLUMN_DATE + " < ?";
+
+    // archive.location_id = ? AND archive.period = ? AND archive.date = ?
+    private static final String sPeriodSelection =
+            ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    ArchiveEntry.COLUMN_PERIOD + " = ? AND " +
+                    ArchiveEntry.COLUMN_DATE + " = ?";
+
+    /**
+     * The totals of one week or month being rolled up.
+     */
+    private static class Rollup {
+        int days;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        // Sums of the averages, each weighted by its days
+        double avgMin;
+        double avgMax;
+        double humidity;
+        double pressure;
+        double wind;
+
+        // Adds a row in ROLLUP_PROJECTION order
+        void add(Cursor row) {
+            int rowDays = row.getInt(1);
+            days += rowDays;
+            min = Math.min(min, row.getDouble(2));
+            max = Math.max(max, row.getDouble(3));
+            avgMin += row.getDouble(4) * rowDays;
+            avgMax += row.getDouble(5) * rowDays;
+            humidity += row.getDouble(6) * rowDays;
+            pressure += row.getDouble(7) * rowDays;
+            wind += row.getDouble(8) * rowDays;
+        }
+
+        ContentValues toValues(long locationId, int period, long date) {
+            ContentValues values = new ContentValues();
+            values.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+            values.put(ArchiveEntry.COLUMN_PERIOD, period);
+            values.put(ArchiveEntry.COLUMN_DATE, date);
+            values.put(ArchiveEntry.COLUMN_DAYS, days);
+            values.put(ArchiveEntry.COLUMN_MIN_TEMP, min);
+            values.put(ArchiveEntry.COLUMN_MAX_TEMP, max);
+            values.put(ArchiveEntry.COLUMN_AVG_MIN_TEMP, avgMin / days);
+            values.put(ArchiveEntry.COLUMN_AVG_MAX_TEMP, avgMax / days);
+            values.put(ArchiveEntry.COLUMN_HUMIDITY, humidity / days);
+            values.put(ArchiveEntry.COLUMN_PRESSURE, pressure / days);
+            values.put(ArchiveEntry.COLUMN_WIND_SPEED, wind / days);
+            return values;
+        }
+    }
+
+    private final SQLiteDatabase mDb;
+    // Reused for every date bucketed; Time is costly to create
+    private final Time mTime = new Time();
+
+    WeatherArchive(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Moves the weather rows the selection matches into the archive, one row per day.  A day
+     * archived twice keeps its later forecast.
+     *
+     * @return the number of rows moved
+     */
+    int archive(String selection, String[] selectionArgs) {
+        mDb.execSQL("INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" + ARCHIVE_COLUMNS + ")" +
+                        " SELECT " + DAY_COLUMNS + " FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + selection,
+                selectionArgs != null ? selectionArgs : new String[0]);
+        return mDb.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+    }
+
+    /**
+     * Rolls the days and weeks that have aged past their window into weeks and months.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of archive rows rolled up
+     */
+    int rollUp(long now) {
+        long today = WeatherContract.normalizeDate(now);
+        // Only whole periods are rolled up, so nothing rolled up ever gains another day
+        long weekCutoff = getWeekStart(today - DAY_ROWS_KEPT_DAYS * DateUtils.DAY_IN_MILLIS);
+        long monthCutoff = getMonthStart(today - WEEK_ROWS_KEPT_DAYS * DateUtils.DAY_IN_MILLIS);
+
+        int rolled = 0;
+        Cursor locations = mDb.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (locations.moveToNext()) {
+                long locationId = locations.getLong(0);
+                rolled += rollUp(locationId, ArchiveEntry.PERIOD_DAY, ArchiveEntry.PERIOD_WEEK,
+                        weekCutoff);
+                rolled += rollUp(locationId, ArchiveEntry.PERIOD_WEEK, ArchiveEntry.PERIOD_MONTH,
+                        monthCutoff);
+            }
+        } finally {
+            locations.close();
+        }
+        return rolled;
+    }
+
+    /**
+     * Rolls one location's rows of a period that start before the cutoff into rows of the next
+     * longer period.  A longer period that already has a row, because rows were archived late,
+     * absorbs it.
+     */
+    private int rollUp(long locationId, int fromPeriod, int toPeriod, long cutoff) {
+        String[] selectionArgs = {Long.toString(locationId), Integer.toString(fromPeriod),
+                Long.toString(cutoff)};
+        Map<Long, Rollup> rollups = new LinkedHashMap<>();
+        Cursor rows = mDb.query(ArchiveEntry.TABLE_NAME, ROLLUP_PROJECTION,
+                sPeriodBeforeSelection, selectionArgs, null, null, ArchiveEntry.COLUMN_DATE);
+        try {
+            while (rows.moveToNext()) {
+                long start = toPeriod == ArchiveEntry.PERIOD_WEEK
+                        ? getWeekStart(rows.getLong(0)) : getMonthStart(rows.getLong(0));
+                Rollup rollup = rollups.get(start);
+                if (rollup == null) {
+                    rollup = new Rollup();
+                    rollups.put(start, rollup);
+                }
+                rollup.add(rows);
+            }
+        } finally {
+            rows.close();
+        }
+        if (rollups.isEmpty()) {
+            return 0;
+        }
+
+        for (Map.Entry<Long, Rollup> entry : rollups.entrySet()) {
+            long start = entry.getKey();
+            Rollup rollup = entry.getValue();
+            Cursor existing = mDb.query(ArchiveEntry.TABLE_NAME, ROLLUP_PROJECTION,
+                    sPeriodSelection,
+                    new String[]{Long.toString(locationId), Integer.toString(toPeriod),
+                            Long.toString(start)},
+                    null, null, null);
+            try {
+                if (existing.moveToFirst()) {
+                    rollup.add(existing);
+                }
+            } finally {
+                existing.close();
+            }
+            // The unique constraint replaces the row absorbed above
+            mDb.insert(ArchiveEntry.TABLE_NAME, null,
+                    rollup.toValues(locationId, toPeriod, start));
+        }
+        return mDb.delete(ArchiveEntry.TABLE_NAME, sPeriodBeforeSelection, selectionArgs);
+    }
+
+    /**
+     * @return the normalized date of the Monday starting the week the date falls in
+     */
+    private long getWeekStart(long date) {
+        mTime.set(date);
+        int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+        // Days before the epoch Monday would give a negative remainder
+        int daysIntoWeek = ((julianDay - MONDAY_JULIAN_DAY) % 7 + 7) % 7;
+        return mTime.setJulianDay(julianDay - daysIntoWeek);
+    }
+
+    /**
+     * @return the normalized date of the first of the month the date falls in
+     */
+    private long getMonthStart(long date) {
+        mTime.set(date);
+        mTime.set(1, mTime.month, mTime.year);
+        long firstOfMonth = mTime.toMillis(true);
+        mTime.set(firstOfMonth);
+        return mTime.setJulianDay(Time.getJulianDay(firstOfMonth, mTime.gmtoff));
+    }
+}
@@ -43,6 +43,15 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+    public static final String PATH_ARCHIVE = "archive";
+
+    // ContentProvider.call method that bulk inserts a ColumnBatch; the arg is the content URI of
+    // the table, as for bulkInsert, and the returned Bundle holds the number of rows inserted
+    // under EXTRA_INSERTED
+    public static final String METHOD_BULK_INSERT = "bulk_insert";
+    public static final String EXTRA_INSERTED = "inserted";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +90,19 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's numeric ID for the city, learned from the first forecast fetched
+        // for the location.  Group fetches ask for many cities by ID in one request.  Null
+        // until known.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // When the location's weather rows were last confirmed current by the server, stored as
+        // long in milliseconds since the epoch.  A 304 counts.  Null until the first sync.
+        public static final String COLUMN_LAST_SYNCED = "last_synced";
+
+        // The ETag, or failing that the Last-Modified date, of the response the rows came from.
+        // Null if the server sent neither or the rows came from elsewhere.
+        public static final String COLUMN_VALIDATOR = "validator";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +148,13 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter of the location URIs: the age, in milliseconds, past which reading
+        // the rows also asks for them to be revalidated in the background
+        static final String PARAM_MAX_AGE = "max_age";
+
+        // Query parameter of CONTENT_URI: deleting through it moves the rows to the archive
+        static final String PARAM_ARCHIVE = "archive";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,10 +178,45 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * Opts a location or location-and-date URI into stale-while-revalidate.  The query still
+         * returns the stored rows at once; if the location was last synced longer than
+         * maxAgeMillis ago, or never, the provider also asks for one background sync, and the
+         * cursor's change notification brings the fresh rows.
+         */
+        public static Uri withMaxAge(Uri weatherUri, long maxAgeMillis) {
+            return weatherUri.buildUpon()
+                    .appendQueryParameter(PARAM_MAX_AGE, Long.toString(maxAgeMillis)).build();
+        }
+
+        /**
+         * Makes a delete through CONTENT_URI move the rows it deletes into the archive, where
+         * they are kept by day for a while and then rolled up by week and by month; see
+         * {@link ArchiveEntry}.  A plain delete drops them.
+         */
+        public static Uri withArchive(Uri weatherUri) {
+            return weatherUri.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "1").build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        /**
+         * @return the max age the URI was opted in with, or -1 if it was not
+         */
+        public static long getMaxAgeFromUri(Uri uri) {
+            String maxAge = uri.getQueryParameter(PARAM_MAX_AGE);
+            return maxAge != null && maxAge.length() > 0 ? Long.parseLong(maxAge) : -1;
+        }
+
+        /**
+         * @return true if deleting through the URI archives the rows
+         */
+        public static boolean isArchiveUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -165,4 +229,198 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the 3-hourly forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3-hour step, stored as long in milliseconds since the epoch.  Unlike the
+        // daily date it is not normalized.
+        public static final String COLUMN_DATE_TIME = "date_time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Temperature at that time, stored as a float
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding the time window of a location query
+        static final String PARAM_START = "start";
+        static final String PARAM_END = "end";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @return the URI of the steps of one location starting at or after start and before end
+         */
+        public static Uri buildHourlyLocationWithWindow(String locationSetting, long start, long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(start))
+                    .appendQueryParameter(PARAM_END, Long.toString(end)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start != null && start.length() > 0 ? Long.parseLong(start) : 0;
+        }
+
+        public static long getEndFromUri(Uri uri) {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end != null && end.length() > 0 ? Long.parseLong(end) : Long.MAX_VALUE;
+        }
+    }
+
+    /* Inner class that defines the table contents of the weather archive */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "archive";
+
+        // The periods a row summarizes.  Days past their date are archived one row each; once
+        // older than a few weeks they are rolled up into a row per week, and once older than
+        // about half a year the weeks into a row per month.  The periods of one location never
+        // overlap, so its rows ordered by date are one series.
+        public static final int PERIOD_DAY = 0;
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the PERIOD_ constants
+        public static final String COLUMN_PERIOD = "period";
+        // First day of the period, normalized as the weather dates are.  Weeks start on Monday;
+        // a week is rolled into the month it starts in.
+        public static final String COLUMN_DATE = "date";
+        // Number of days of weather the row summarizes
+        public static final String COLUMN_DAYS = "days";
+        // Weather id of the day; null for weeks and months
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Lowest min and highest max temperature over the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Daily min and max temperatures averaged over the period
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        // Averaged over the period
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        /**
+         * @return the URI of every archived period of one location, oldest first
+         */
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @return the URI of the archived periods of one location that start on or after
+         * startDate, oldest first
+         */
+        public static Uri buildArchiveLocationWithStartDate(String locationSetting, long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(COLUMN_DATE);
+            return dateString != null && dateString.length() > 0 ? Long.parseLong(dateString) : 0;
+        }
+    }
+
+    /* Inner class that defines the columns of the read-only sync timing diagnostics */
+    public static final class SyncDiagnosticsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_DIAGNOSTICS).appendPath("sync").build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        // When the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        // Number of locations the sync fetched
+        public static final String COLUMN_LOCATIONS = "locations";
+
+        // Connect, download and parse are summed over all locations.  Locations are fetched in
+        // parallel, so their sum can exceed the wall time of the sync.
+        public static final String COLUMN_CONNECT_MILLIS = "connect_ms";
+        public static final String COLUMN_DOWNLOAD_MILLIS = "download_ms";
+        public static final String COLUMN_PARSE_MILLIS = "parse_ms";
+
+        // Database write, fan-out to widgets/Muzei/Wear/notification, and the whole sync, as
+        // wall time in milliseconds
+        public static final String COLUMN_DB_WRITE_MILLIS = "db_write_ms";
+        public static final String COLUMN_FAN_OUT_MILLIS = "fan_out_ms";
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+
+        // Bytes received over the wire, before gzip decoding
+        public static final String COLUMN_BYTES_READ = "bytes_read";
+        // Weather rows written to the database
+        public static final String COLUMN_ROWS_WRITTEN = "rows_written";
+
+        // HTTP requests that got a response, how many of them likely went over a kept-alive
+        // socket, and their time to first byte summed.  HttpURLConnection does not report
+        // reuse, so likely_reused is an estimate: requests made while the transport's own
+        // tally held an idle connection to the host within the keep-alive time.  The platform
+        // may still have opened a new socket for them.
+        public static final String COLUMN_REQUESTS = "requests";
+        public static final String COLUMN_LIKELY_REUSED = "likely_reused";
+        public static final String COLUMN_FIRST_BYTE_MILLIS = "first_byte_ms";
+
+        // 1 if the server answered but no row changed, every location getting a 304 or the
+        // forecast already stored, so the fan-out was skipped; else 0
+        public static final String COLUMN_SHORT_CIRCUITED = "short_circuited";
+        // Syncs short-circuited that way since the app was installed, this one included
+        public static final String COLUMN_SHORT_CIRCUITED_COUNT = "short_circuited_count";
+
+        // All columns, in the order the diagnostics cursor returns them by default
+        public static final String[] COLUMNS = new String[] {
+                _ID,
+                COLUMN_START_TIME,
+                COLUMN_LOCATIONS,
+                COLUMN_CONNECT_MILLIS,
+                COLUMN_DOWNLOAD_MILLIS,
+                COLUMN_PARSE_MILLIS,
+                COLUMN_DB_WRITE_MILLIS,
+                COLUMN_FAN_OUT_MILLIS,
+                COLUMN_TOTAL_MILLIS,
+                COLUMN_BYTES_READ,
+                COLUMN_ROWS_WRITTEN,
+                COLUMN_REQUESTS,
+                COLUMN_LIKELY_REUSED,
+                COLUMN_FIRST_BYTE_MILLIS,
+                COLUMN_SHORT_CIRCUITED,
+                COLUMN_SHORT_CIRCUITED_COUNT
+        };
+    }
 }
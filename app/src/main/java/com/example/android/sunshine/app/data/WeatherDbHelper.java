@@ -15,37 +15,70 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * <p>From Honeycomb on the database runs with write-ahead logging.  The sync adapter's write
+ * transactions then append to the log while reads made on other threads, the loaders', widgets'
+ * and Muzei's, go through a pooled reader connection and see the last committed data instead of
+ * waiting for the sync to commit.  Gingerbread keeps the rollback journal.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add the
+    // step from the old version to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String WEATHER_LIST_INDEX = "weather_list";
+    static final String WEATHER_DATE_INDEX = "weather_date";
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Applied as the database is opened, before anything else touches it
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't do it for us
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, the latitude and longitude, and the OWM city ID,
+        // along with when its forecast was last synced and the validator it was synced with
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_LAST_SYNCED + " INTEGER, " +
+                LocationEntry.COLUMN_VALIDATOR + " TEXT " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -75,24 +108,95 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Every read names one location and a date or range of dates, so the index
+                // behind it is led by the location.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // The forecast list, the widgets and Muzei read a location's days from a start date
+        // with the list projection; this index holds all of it, so those reads never touch
+        // the table.  The detail view reads the remaining columns through the unique index.
+        final String SQL_CREATE_WEATHER_LIST_INDEX = "CREATE INDEX " + WEATHER_LIST_INDEX +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+        // For the reads and the cleanup that cover every location at once, by date alone
+        final String SQL_CREATE_WEATHER_DATE_INDEX = "CREATE INDEX " + WEATHER_DATE_INDEX +
+                " ON " + WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_DATE + ");";
+
+        // The 3-hourly steps are about eight times as many rows as the daily ones.  The unique
+        // constraint keeps one row per step per location, and its index, led by the location,
+        // serves the time window queries without a table scan.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);";
+
+        // Days moved out of the weather table, and their weekly and monthly rollups.  Reads
+        // name a location and a start date, and the rollups walk one location's rows by date.
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER, " +
+                ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+                ArchiveEntry.COLUMN_DATE + ", " +
+                ArchiveEntry.COLUMN_PERIOD + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LIST_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (WeatherDbMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+        // Too old to migrate.  This database is only a cache for online data, so start over
+        // (ForecastReplayService refills it from the payload cache on the next start)
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The history of the weather.db schema, as the steps that bring a database from each version to
+ * the next.  {@link WeatherDbHelper#onUpgrade} runs them in order, each in its own transaction,
+ * so an upgrade keeps every stored location and forecast instead of refetching them all.
+ *
+ * <p>A step describes the schema as it was at its own version, not as it is now: it must not be
+ * edited once released.  A schema change adds a step at the end of {@link #STEPS} along with the
+ * new {@link WeatherDbHelper#DATABASE_VERSION}, and a create script for the old version to
+ * TestDbUpgrade.
+ */
+final class WeatherDbMigrations {
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    // Databases older than this predate the migrations; they are dropped and created afresh
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    /**
+     * Brings a database at {@link #fromVersion} to the version after it.
+     */
+    abstract static class Step {
+        final int fromVersion;
+
+        Step(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    static final Step[] STEPS = {
+            // The 3-hourly forecast series
+            new Step(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                            HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                            HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                            HourlyEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);");
+                }
+            },
+            // City IDs, for group fetches; learned on each location's next fetch
+            new Step(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_CITY_ID + " INTEGER");
+                }
+            },
+            // Freshness, for stale-while-revalidate.  Locations start out never synced, so the
+            // first read of each revalidates it while showing the stored rows.
+            new Step(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_LAST_SYNCED + " INTEGER");
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_VALIDATOR + " TEXT");
+                }
+            },
+            // The weather indexes led by the location.  SQLite can't change a table's
+            // constraints, so the table is built anew and the rows copied across.
+            new Step(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    String columns = WeatherEntry._ID + ", " +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherEntry.COLUMN_HUMIDITY + ", " +
+                            WeatherEntry.COLUMN_PRESSURE + ", " +
+                            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                            WeatherEntry.COLUMN_DEGREES;
+                    String old = WeatherEntry.TABLE_NAME + "_v5";
+                    db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + old);
+                    db.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+                    db.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME + " (" + columns + ")" +
+                            " SELECT " + columns + " FROM " + old);
+                    db.execSQL("DROP TABLE " + old);
+                    db.execSQL("CREATE INDEX weather_list ON " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherEntry.COLUMN_WEATHER_ID + ");");
+                    db.execSQL("CREATE INDEX weather_date ON " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            // The archive of past days and their rollups.  It starts out empty: the days deleted
+            // before it existed are gone.
+            new Step(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                            ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            ArchiveEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                            ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                            ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER, " +
+                            ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            ArchiveEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+                            ArchiveEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+                            ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+                            ArchiveEntry.COLUMN_DATE + ", " +
+                            ArchiveEntry.COLUMN_PERIOD + ") ON CONFLICT REPLACE);");
+                }
+            },
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * @return true if the steps lead from oldVersion to newVersion
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        return oldVersion >= OLDEST_MIGRATABLE_VERSION
+                && newVersion <= OLDEST_MIGRATABLE_VERSION + STEPS.length;
+    }
+
+    /**
+     * Runs the steps from oldVersion up to newVersion, each in a transaction of its own.  Inside
+     * the helper's upgrade transaction a failed step rolls the whole upgrade back, so the
+     * database is left as it was, at oldVersion, rather than half migrated.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            Step step = STEPS[version - OLDEST_MIGRATABLE_VERSION];
+            if (step.fromVersion != version) {
+                throw new IllegalStateException("Migration from version " + step.fromVersion
+                        + " is listed for version " + version);
+            }
+            db.beginTransaction();
+            try {
+                step.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(LOG_TAG, "Migrated weather.db from version " + version + " to " + (version + 1));
+        }
+    }
+}
@@ -17,12 +17,26 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,10 +44,24 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Set while applyBatch runs on the calling thread, to collect notifications until the commit
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
+    static final int DIAGNOSTICS_SYNC = 400;
+    static final int ARCHIVE = 600;
+    static final int ARCHIVE_WITH_LOCATION = 601;
+
+    // However many readers find a location stale, it is revalidated at most once this often
+    static final long REVALIDATION_BACKOFF_MILLIS = DateUtils.MINUTE_IN_MILLIS;
+
+    // When each location was last revalidated on a reader's behalf.  Guarded by itself.
+    private static final Map<String, Long> sRevalidations = new HashMap<>();
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +79,21 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+
+    static{
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -68,7 +111,8 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    private static Select selectWeatherByLocationSetting(Uri uri, String[] projection,
+                                                         String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
@@ -83,31 +127,210 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return new Select(sWeatherByLocationSettingQueryBuilder.getTables(),
                 projection,
                 selection,
                 selectionArgs,
-                null,
-                null,
                 sortOrder
         );
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+
+    static{
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //archive INNER JOIN location ON archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    //location.location_setting = ? AND archive.date >= ?
+    private static final String sLocationSettingWithArchiveStartSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.ArchiveEntry.TABLE_NAME +
+                    "." + WeatherContract.ArchiveEntry.COLUMN_DATE + " >= ? ";
+
+    private static Select selectArchiveByLocationSetting(Uri uri, String[] projection,
+                                                         String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.ArchiveEntry.getStartDateFromUri(uri);
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.ArchiveEntry.TABLE_NAME + "." +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " ASC";
+        }
+
+        return new Select(sArchiveByLocationSettingQueryBuilder.getTables(),
+                projection,
+                sLocationSettingWithArchiveStartSelection,
+                new String[]{locationSetting, Long.toString(startDate)},
+                sortOrder
+        );
+    }
+
+    //location.location_setting = ? AND date_time >= ? AND date_time < ?
+    private static final String sLocationSettingWithWindowSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " < ? ";
+
+    private static Select selectHourlyByLocationSetting(Uri uri, String[] projection,
+                                                        String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long start = WeatherContract.HourlyEntry.getStartFromUri(uri);
+        long end = WeatherContract.HourlyEntry.getEndFromUri(uri);
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " ASC";
+        }
+
+        return new Select(sHourlyByLocationSettingQueryBuilder.getTables(),
+                projection,
+                sLocationSettingWithWindowSelection,
+                new String[]{locationSetting, Long.toString(start), Long.toString(end)},
+                sortOrder
+        );
+    }
+
+    private static Select selectWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return new Select(sWeatherByLocationSettingQueryBuilder.getTables(),
                 projection,
                 sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
                 sortOrder
         );
     }
 
+    /**
+     * A SELECT statement and its arguments.
+     */
+    static class Select {
+        final String sql;
+        final String[] selectionArgs;
+
+        Select(String tables, String[] projection, String selection, String[] selectionArgs,
+               String sortOrder) {
+            this.sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection, selection,
+                    null, null, sortOrder, null);
+            this.selectionArgs = selectionArgs;
+        }
+    }
+
+    /**
+     * Builds the SELECT that {@link #query} runs for a URI.  The statement is built apart from
+     * running it so that the plan of every URI's query can be checked (see TestQueryPlans).
+     *
+     * @throws UnsupportedOperationException if the URI isn't served by a table
+     */
+    static Select buildSelect(Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return selectWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+            // "weather/*"
+            case WEATHER_WITH_LOCATION:
+                return selectWeatherByLocationSetting(uri, projection, sortOrder);
+            // "weather"
+            case WEATHER:
+                return new Select(WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
+            // "location"
+            case LOCATION:
+                return new Select(WeatherContract.LocationEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
+            // "hourly/*?start=&end="
+            case HOURLY_WITH_LOCATION:
+                return selectHourlyByLocationSetting(uri, projection, sortOrder);
+            // "hourly"
+            case HOURLY:
+                return new Select(WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
+            // "archive/*?date="
+            case ARCHIVE_WITH_LOCATION:
+                return selectArchiveByLocationSetting(uri, projection, sortOrder);
+            // "archive"
+            case ARCHIVE:
+                return new Select(WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Asks for one background sync if the URI opted into stale-while-revalidate and the
+     * location was last synced longer ago than it allows.  The rows have already been read; this
+     * never waits for the network.
+     */
+    private void revalidateIfStale(Uri uri) {
+        long maxAge = WeatherContract.WeatherEntry.getMaxAgeFromUri(uri);
+        if (maxAge < 0) {
+            return;
+        }
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long now = System.currentTimeMillis();
+        if (isStale(getLastSynced(locationSetting), maxAge, now)
+                && claimRevalidation(locationSetting, now)) {
+            // COLUMN_LAST_SYNCED decided this; the coalescer only folds the location into any
+            // sync already requested or running
+            SunshineSyncAdapter.syncStaleLocation(getContext(), locationSetting);
+        }
+    }
+
+    /**
+     * @return when the location was last synced, or 0 if it never was
+     */
+    private long getLastSynced(String locationSetting) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LAST_SYNCED},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if rows last synced at lastSynced are older than maxAge, or were never synced
+     */
+    static boolean isStale(long lastSynced, long maxAge, long now) {
+        long age = now - lastSynced;
+        // A negative age means the clock was set back; trust the server rather than the rows
+        return lastSynced == 0 || age < 0 || age > maxAge;
+    }
+
+    /**
+     * @return true if the caller should revalidate the location, false if that was already done
+     * within {@link #REVALIDATION_BACKOFF_MILLIS}
+     */
+    static boolean claimRevalidation(String locationSetting, long now) {
+        synchronized (sRevalidations) {
+            Long last = sRevalidations.get(locationSetting);
+            if (last != null && now - last >= 0 && now - last < REVALIDATION_BACKOFF_MILLIS) {
+                return false;
+            }
+            sRevalidations.put(locationSetting, now);
+            return true;
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +353,14 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS + "/sync", DIAGNOSTICS_SYNC);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +395,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case DIAGNOSTICS_SYNC:
+                return WeatherContract.SyncDiagnosticsEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -176,46 +415,27 @@ public class WeatherProvider extends ContentProvider {
         // and query the database accordingly.
         Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
+            // "weather/*/*", "weather/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                Select select = buildSelect(uri, projection, selection, selectionArgs, sortOrder);
+                retCursor = mOpenHelper.getReadableDatabase().rawQuery(
+                        select.sql, select.selectionArgs);
+                revalidateIfStale(uri);
                 break;
             }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+            // "diagnostics/sync", served from memory and read-only
+            case DIAGNOSTICS_SYNC: {
+                retCursor = SyncDiagnostics.query(projection);
                 break;
             }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+            // "weather", "location", "hourly", "hourly/*?start=&end=", "archive", "archive/*"
+            default: {
+                Select select = buildSelect(uri, projection, selection, selectionArgs, sortOrder);
+                retCursor = mOpenHelper.getReadableDatabase().rawQuery(
+                        select.sql, select.selectionArgs);
                 break;
             }
-
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
@@ -248,10 +468,18 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(WeatherContract.HourlyEntry.CONTENT_URI, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -264,23 +492,58 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                if (WeatherContract.WeatherEntry.isArchiveUri(uri)) {
+                    rowsDeleted = archiveWeather(db, selection, selectionArgs);
+                } else {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Moves the weather rows the selection matches into the archive and rolls up the archived
+     * days that have aged out of their window, all in one transaction.
+     *
+     * @return the number of weather rows moved
+     */
+    private int archiveWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        int rowsMoved;
+        db.beginTransaction();
+        try {
+            WeatherArchive archive = new WeatherArchive(db);
+            rowsMoved = archive.archive(selection, selectionArgs);
+            archive.rollUp(System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsMoved != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        return rowsMoved;
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -310,35 +573,150 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Writes weather, hourly and location rows through one compiled INSERT in one transaction;
+     * see {@link BulkInserter}.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        BulkInserter.Table table = getBulkTable(uri);
+        if (table == null) {
+            return super.bulkInsert(uri, values);
+        }
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+        int returnCount = 0;
+        db.beginTransaction();
+        BulkInserter inserter = new BulkInserter(db, table);
+        try {
+            for (ContentValues value : values) {
+                if (isCallerInterrupted()) {
+                    // Roll back and let go of the database lock at once
+                    return 0;
+                }
+                if (inserter.insert(value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        notifyChange(uri);
+        return returnCount;
+    }
+
+    /**
+     * Serves {@link WeatherContract#METHOD_BULK_INSERT}: the columnar counterpart of
+     * {@link #bulkInsert}, taking the arrays of a {@link ColumnBatch} as the extras and the
+     * URI of the table as the arg.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!WeatherContract.METHOD_BULK_INSERT.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        Uri uri = Uri.parse(arg);
+        BulkInserter.Table table = getBulkTable(uri);
+        if (table == null) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Bundle result = new Bundle();
+        int returnCount = 0;
+        db.beginTransaction();
+        BulkInserter inserter = new BulkInserter(db, table);
+        try {
+            int rows = inserter.setBatch(extras);
+            for (int row = 0; row < rows; row++) {
+                if (isCallerInterrupted()) {
+                    result.putInt(WeatherContract.EXTRA_INSERTED, 0);
+                    return result;
+                }
+                if (inserter.insertRow(row) != -1) {
+                    returnCount++;
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        notifyChange(uri);
+        result.putInt(WeatherContract.EXTRA_INSERTED, returnCount);
+        return result;
+    }
+
+    /**
+     * @return the table a bulk insert into the URI writes, or null if it takes none
+     */
+    private static BulkInserter.Table getBulkTable(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER:
+                return BulkInserter.WEATHER;
+            case HOURLY:
+                return BulkInserter.HOURLY;
+            case LOCATION:
+                return BulkInserter.LOCATION;
             default:
-                return super.bulkInsert(uri, values);
+                return null;
+        }
+    }
+
+    /**
+     * Applies the whole batch in one transaction.  Change notifications raised by the individual
+     * operations are held back and sent once per distinct URI after the commit, so observers
+     * re-query once per batch rather than once per row.  If any operation fails, or the calling
+     * thread is interrupted between operations, nothing is committed and nothing is notified.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+        mPendingNotifications.set(pendingNotifications);
+        db.beginTransaction();
+        try {
+            results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < results.length; i++) {
+                if (isCallerInterrupted()) {
+                    throw new OperationApplicationException("Interrupted after " + i + " of "
+                            + results.length + " operations", i);
+                }
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.set(null);
+        }
+        for (Uri uri : pendingNotifications) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * @return true if the thread writing was interrupted, as a canceled sync is.  In-process
+     * callers such as the sync adapter run the provider on their own thread, so a long write
+     * can give up its transaction as soon as they are canceled.
+     */
+    private static boolean isCallerInterrupted() {
+        return Thread.currentThread().isInterrupted();
+    }
+
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
         }
     }
 
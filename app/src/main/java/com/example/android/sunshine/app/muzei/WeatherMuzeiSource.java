@@ -55,8 +55,10 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.withMaxAge(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        location, System.currentTimeMillis()),
+                SunshineSyncAdapter.getForecastMaxAgeMillis(this));
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
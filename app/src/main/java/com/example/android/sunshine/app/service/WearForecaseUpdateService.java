@@ -43,8 +43,12 @@ public class WearForecaseUpdateService extends IntentService {
     protected void onHandleIntent(Intent intent) {
         Bundle extras = intent.getExtras();
 
+        // Without extras, send what is already stored
         if (extras == null) {
-            return;
+            extras = SunshineSyncAdapter.getStoredWearExtras(this);
+            if (extras == null) {
+                return;
+            }
         }
 
         mTodayHigh = extras.getString(SunshineSyncAdapter.EXTRA_HIGH_TEMP);
@@ -7,6 +7,7 @@ import android.os.IBinder;
 import android.support.annotation.Nullable;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoalescer;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.MessageApi;
@@ -26,7 +27,19 @@ public class WearReceiverService extends Service implements
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         if (messageEvent.getPath().equals("/watchface_data")) {
-            SunshineSyncAdapter.syncImmediately(this);
+            // The watch face shows today and tomorrow only
+            SunshineSyncAdapter.syncImmediately(this, SunshineSyncAdapter.SYNC_DEPTH_TODAY,
+                    new SyncCoalescer.Listener() {
+                        @Override
+                        public void onSyncResult(int result) {
+                            // A sync that changed something already updated the watch; otherwise
+                            // send it the stored forecast
+                            if (result != SyncCoalescer.RESULT_CHANGED) {
+                                startService(new Intent(WearReceiverService.this,
+                                        WearForecaseUpdateService.class));
+                            }
+                        }
+                    });
         }
     }
 
@@ -0,0 +1,57 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails the read that would take it past a fixed number of bytes, so a runaway response body
+ * (or a gzip bomb, when placed above the decoder) cannot grow without bound.
+ */
+class BoundedInputStream extends FilterInputStream {
+    private final long mLimit;
+    private long mCount;
+
+    BoundedInputStream(InputStream in, long limit) {
+        super(in);
+        mLimit = limit;
+    }
+
+    private void add(long read) throws IOException {
+        mCount += read;
+        if (mCount > mLimit) {
+            throw new IOException("Response body exceeds " + mLimit + " bytes");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            add(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            add(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        add(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Re-reading after reset() would count bytes twice
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, such as a payload in the memory-mapped
+ * {@link PayloadCache}, without copying them first.
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer mBuffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        int read = Math.min(count, mBuffer.remaining());
+        mBuffer.get(buffer, offset, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) {
+        int skipped = (int) Math.max(0, Math.min(byteCount, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Passes the stream through to the parser unchanged while copying every byte read into a pooled
+ * direct buffer, for the cases where the raw payload has to be kept after parsing.
+ */
+class CapturingInputStream extends FilterInputStream {
+    private ByteBuffer mBuffer;
+
+    CapturingInputStream(InputStream in) {
+        super(in);
+        mBuffer = PayloadBufferPool.acquire(PayloadBufferPool.DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            ensureRemaining(1);
+            mBuffer.put((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            ensureRemaining(read);
+            mBuffer.put(buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        // Skipped bytes still belong in the payload, so read them instead
+        byte[] scratch = new byte[(int) Math.min(byteCount, 4096)];
+        long skipped = 0;
+        while (skipped < byteCount) {
+            int read = read(scratch, 0, (int) Math.min(scratch.length, byteCount - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void ensureRemaining(int count) {
+        if (mBuffer.remaining() >= count) {
+            return;
+        }
+        ByteBuffer bigger = PayloadBufferPool.acquire(
+                Math.max(mBuffer.capacity() * 2, mBuffer.position() + count));
+        mBuffer.flip();
+        bigger.put(mBuffer);
+        PayloadBufferPool.release(mBuffer);
+        mBuffer = bigger;
+    }
+
+    /**
+     * @return the bytes read so far, positioned at 0 and limited to the payload length.  The
+     * buffer stays owned by this stream until {@link #release()} is called.
+     */
+    ByteBuffer getPayload() {
+        ByteBuffer payload = mBuffer.duplicate();
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Gives up ownership of the capture buffer.  The caller should hand it back with
+     * {@link PayloadBufferPool#release} once done; {@link #release()} then does nothing.
+     *
+     * @return the bytes read, positioned at 0 and limited to the payload length
+     */
+    ByteBuffer detachPayload() {
+        ByteBuffer payload = getPayload();
+        mBuffer = null;
+        return payload;
+    }
+
+    /**
+     * Hands the capture buffer back to the pool.
+     */
+    void release() {
+        PayloadBufferPool.release(mBuffer);
+        mBuffer = null;
+    }
+}
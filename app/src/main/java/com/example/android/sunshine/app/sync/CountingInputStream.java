@@ -0,0 +1,52 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes that pass through it.  Placed under the gzip decoder it counts what came
+ * over the wire, above it what the parser consumed.
+ */
+class CountingInputStream extends FilterInputStream {
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        mCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Re-reading after reset() would count bytes twice
+        return false;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells everyone downstream of the database (widgets, Muzei, Wear, the notification) that the
+ * forecast changed.  Consumers run concurrently, each with its own deadline counted from the
+ * start of the stage; a consumer still running at its deadline is interrupted and left behind,
+ * so one slow consumer holds up neither the others nor the sync adapter.
+ */
+class FanOutStage {
+    private static final String LOG_TAG = FanOutStage.class.getSimpleName();
+
+    private static final int MAX_PARALLEL_CONSUMERS = 4;
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_CONSUMERS, MAX_PARALLEL_CONSUMERS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static class Consumer implements Runnable {
+        final String name;
+        final long deadlineMillis;
+        final Runnable runnable;
+        // How long the consumer ran, or -1 until it finishes
+        volatile long elapsedMillis = -1;
+
+        Consumer(String name, long deadlineMillis, Runnable runnable) {
+            this.name = name;
+            this.deadlineMillis = deadlineMillis;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                runnable.run();
+            } finally {
+                elapsedMillis = System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+    private final List<Consumer> mConsumers = new ArrayList<>();
+
+    /**
+     * Adds a consumer to run when the stage runs.
+     *
+     * @param deadlineMillis how long after the stage starts the consumer may still be running
+     */
+    FanOutStage add(String name, long deadlineMillis, Runnable consumer) {
+        mConsumers.add(new Consumer(name, deadlineMillis, consumer));
+        return this;
+    }
+
+    /**
+     * Runs every consumer and waits until each has finished or passed its deadline.
+     *
+     * @return the wall time of the stage in milliseconds
+     */
+    long run() {
+        long start = System.currentTimeMillis();
+        List<Future<?>> futures = new ArrayList<>(mConsumers.size());
+        for (Consumer consumer : mConsumers) {
+            futures.add(sExecutor.submit(consumer));
+        }
+
+        StringBuilder timings = new StringBuilder();
+        for (int i = 0; i < mConsumers.size(); i++) {
+            Consumer consumer = mConsumers.get(i);
+            Future<?> future = futures.get(i);
+            long remaining = start + consumer.deadlineMillis - System.currentTimeMillis();
+            try {
+                future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                timings.append(consumer.name).append(' ').append(consumer.elapsedMillis).append("ms ");
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                Log.w(LOG_TAG, consumer.name + " missed its " + consumer.deadlineMillis
+                        + "ms deadline");
+                timings.append(consumer.name).append(" timed out ");
+            } catch (InterruptedException e) {
+                for (Future<?> pending : futures) {
+                    pending.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | CancellationException e) {
+                Log.e(LOG_TAG, consumer.name + " failed", e);
+                timings.append(consumer.name).append(" failed ");
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        Log.d(LOG_TAG, "Fan-out took " + elapsed + "ms: " + timings.toString().trim());
+        return elapsed;
+    }
+}
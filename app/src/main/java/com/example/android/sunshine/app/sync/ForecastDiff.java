@@ -0,0 +1,116 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares freshly parsed day rows against what the provider already stores for a location,
+ * so the sync only writes (and only tells anyone about) the days whose values changed.
+ */
+final class ForecastDiff {
+    private static final String LOG_TAG = ForecastDiff.class.getSimpleName();
+
+    // Every stored value that comes from the server.  The date is the key the rows are
+    // matched on, and the location key and _id are ours.
+    private static final String[] COMPARED_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] STORED_PROJECTION;
+    static {
+        STORED_PROJECTION = new String[COMPARED_COLUMNS.length + 1];
+        STORED_PROJECTION[0] = WeatherEntry.COLUMN_DATE;
+        System.arraycopy(COMPARED_COLUMNS, 0, STORED_PROJECTION, 1, COMPARED_COLUMNS.length);
+    }
+
+    // location_id = ? AND date >= ?
+    private static final String sLocationAndStartDateSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?";
+
+    private ForecastDiff() {
+    }
+
+    /**
+     * @param provider the client the sync writes through, so the read goes to the same provider
+     * @param days the parsed rows, in date order, each holding its location key and date
+     * @return the rows that are new or differ from the stored row for the same date; all of
+     * them if the stored rows can't be read
+     */
+    static List<ContentValues> changedDays(ContentProviderClient provider, long locationId,
+                                           List<ContentValues> days) {
+        if (days.isEmpty()) {
+            return days;
+        }
+        long firstDate = days.get(0).getAsLong(WeatherEntry.COLUMN_DATE);
+        Cursor stored;
+        try {
+            stored = provider.query(WeatherEntry.CONTENT_URI,
+                    STORED_PROJECTION,
+                    sLocationAndStartDateSelection,
+                    new String[]{Long.toString(locationId), Long.toString(firstDate)},
+                    null);
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Error reading stored forecast, rewriting every day", e);
+            return days;
+        }
+        if (stored == null) {
+            return days;
+        }
+
+        try {
+            Map<Long, Integer> positionByDate = new HashMap<>(stored.getCount());
+            while (stored.moveToNext()) {
+                positionByDate.put(stored.getLong(0), stored.getPosition());
+            }
+
+            List<ContentValues> changed = new ArrayList<>(days.size());
+            for (ContentValues day : days) {
+                Integer position = positionByDate.get(day.getAsLong(WeatherEntry.COLUMN_DATE));
+                if (position == null || !stored.moveToPosition(position)
+                        || differs(day, stored)) {
+                    changed.add(day);
+                }
+            }
+            return changed;
+        } finally {
+            stored.close();
+        }
+    }
+
+    private static boolean differs(ContentValues day, Cursor stored) {
+        for (int i = 0; i < COMPARED_COLUMNS.length; i++) {
+            // column 0 of the cursor is the date
+            int index = i + 1;
+            Object value = day.get(COMPARED_COLUMNS[i]);
+            if (value == null || stored.isNull(index)) {
+                if (value != null || !stored.isNull(index)) {
+                    return true;
+                }
+            } else if (value instanceof Number) {
+                if (Double.compare(((Number) value).doubleValue(), stored.getDouble(index)) != 0) {
+                    return true;
+                }
+            } else if (!value.toString().equals(stored.getString(index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
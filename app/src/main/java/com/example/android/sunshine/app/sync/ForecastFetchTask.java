@@ -0,0 +1,298 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses the forecast for one location from a {@link ForecastSource}.  Runs on
+ * the sync adapter's fetch pool, so it never touches the database beyond a read, and never
+ * throws: every outcome, including failures, comes back as a {@link Result} so one bad
+ * location cannot abort the others.  Network and server errors are retried as the shared
+ * {@link RetryPolicy} allows; client errors other than 429 are final, since asking again
+ * would get the same answer.
+ */
+class ForecastFetchTask implements Callable<ForecastFetchTask.Result> {
+    private static final String LOG_TAG = ForecastFetchTask.class.getSimpleName();
+
+    /**
+     * The outcome of fetching one location.
+     */
+    static class Result {
+        final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        // true if the server answered 304 and the stored rows are still current
+        boolean notModified;
+        // attempts the server answered with a forecast or a 304, so a sync that changed nothing
+        // can be told from one that reached no server
+        int requests;
+        // the parsed rows; only set when status is LOCATION_STATUS_OK and notModified is false
+        ParsedForecast forecast;
+        String eTag;
+        String lastModified;
+        long wireBytes;
+        // the decoded response body of a successful fetch, in a PayloadBufferPool buffer
+        ByteBuffer payload;
+        // true if the last attempt failed with a network or server error
+        boolean ioFailure;
+        // the largest Retry-After, in seconds, any attempt was answered with
+        long retryAfterSeconds;
+        // time spent waiting for response headers, reading the body and parsing it, summed
+        // over all attempts
+        long connectMillis;
+        long downloadMillis;
+        long parseMillis;
+
+        Result(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    // How many days of forecast to request
+    static final int NUM_DAYS = 14;
+    // Not in HttpURLConnection
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final Context mContext;
+    private final ForecastSource mSource;
+    private final String mLocationSetting;
+    private final ForecastParser mParser;
+    private final RetryPolicy mRetryPolicy;
+    private final int mNumDays;
+
+    ForecastFetchTask(Context context, ForecastSource source, String locationSetting,
+                      ForecastParser parser, RetryPolicy retryPolicy) {
+        this(context, source, locationSetting, parser, retryPolicy, NUM_DAYS);
+    }
+
+    /**
+     * @param numDays how many days to fetch; fewer than {@link #NUM_DAYS} makes a shallow fetch,
+     *                which is never conditional since the validators describe the full forecast
+     */
+    ForecastFetchTask(Context context, ForecastSource source, String locationSetting,
+                      ForecastParser parser, RetryPolicy retryPolicy, int numDays) {
+        mContext = context;
+        mSource = source;
+        mLocationSetting = locationSetting;
+        mParser = parser;
+        mRetryPolicy = retryPolicy;
+        mNumDays = numDays;
+    }
+
+    @Override
+    public Result call() {
+        Result result = new Result(mLocationSetting);
+        int failedAttempts = 0;
+        while (true) {
+            try {
+                fetch(result);
+                return result;
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The sync was canceled and is discarding its results; don't retry
+                    Log.d(LOG_TAG, "Fetch of " + mLocationSetting + " canceled");
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    result.ioFailure = true;
+                    return result;
+                }
+                failedAttempts++;
+                result.ioFailure = true;
+                // If the code didn't successfully get the weather data, there's no point in
+                // attempting to parse it.
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                if (!mRetryPolicy.shouldRetry(failedAttempts)) {
+                    Log.e(LOG_TAG, "Error fetching " + mLocationSetting + ", giving up after "
+                            + failedAttempts + " attempts", e);
+                    return result;
+                }
+                long delay = mRetryPolicy.getDelayMillis(failedAttempts);
+                Log.w(LOG_TAG, "Error fetching " + mLocationSetting + ", retrying in "
+                        + delay + "ms: " + e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return result;
+                }
+            } catch (JSONException e) {
+                // A malformed body won't get better by asking again
+                Log.e(LOG_TAG, e.getMessage(), e);
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Makes one attempt at fetching and parsing the forecast, filling in the result.
+     *
+     * @throws IOException on network errors and on server errors worth retrying
+     */
+    private void fetch(Result result) throws IOException, JSONException {
+        // These need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        ForecastSource.Response response = null;
+        CapturingInputStream capture = null;
+
+        try {
+            // Only make the request conditional if we still have the rows the validators
+            // describe; after a wipe or a day rollover a 304 would leave us with nothing.
+            String eTag = null;
+            String lastModified = null;
+            if (mNumDays == NUM_DAYS && hasStoredForecast()) {
+                eTag = ForecastValidators.getETag(mContext, mLocationSetting);
+                lastModified = ForecastValidators.getLastModified(mContext, mLocationSetting);
+            }
+            long connectStart = System.currentTimeMillis();
+            response = mSource.fetch(mLocationSetting, mNumDays, eTag, lastModified);
+            int responseCode = response.getResponseCode();
+            result.connectMillis += System.currentTimeMillis() - connectStart;
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed on the server, so there is nothing to parse or store.
+                result.requests++;
+                result.notModified = true;
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || responseCode == HTTP_TOO_MANY_REQUESTS) {
+                result.retryAfterSeconds = Math.max(result.retryAfterSeconds,
+                        parseRetryAfter(response.getHeader("Retry-After")));
+                throw new IOException("Server returned " + responseCode);
+            }
+            if (isClientError(responseCode)) {
+                setClientError(result, responseCode);
+                return;
+            }
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                // Nothing to do.
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return;
+            }
+            // Keep the decoded body so PayloadCache can rebuild the database from it offline
+            capture = new CapturingInputStream(inputStream);
+            inputStream = capture;
+            // The body is parsed as it arrives; time blocked in read() is download time
+            TimingInputStream timing = new TimingInputStream(inputStream);
+
+            result.requests++;
+            long parseStart = System.currentTimeMillis();
+            ParsedForecast forecast;
+            try {
+                forecast = mParser.parse(timing);
+            } finally {
+                long elapsed = System.currentTimeMillis() - parseStart;
+                result.downloadMillis += timing.getReadMillis();
+                result.parseMillis += Math.max(0, elapsed - timing.getReadMillis());
+                result.wireBytes += response.getWireBytes();
+            }
+            Log.d(LOG_TAG, mLocationSetting + ": " + mParser.getClass().getSimpleName()
+                    + " parsed " + forecast.getDays().size() + " days from "
+                    + response.getWireBytes() + " bytes (" + response.getHeader("Content-Encoding")
+                    + ") in " + (System.currentTimeMillis() - parseStart) + "ms");
+
+            // do we have an error?
+            switch (forecast.getErrorCode()) {
+                case HttpURLConnection.HTTP_OK:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    result.ioFailure = false;
+                    result.forecast = forecast;
+                    result.eTag = response.getHeader("ETag");
+                    result.lastModified = response.getHeader("Last-Modified");
+                    result.payload = capture.detachPayload();
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    result.ioFailure = false;
+                    break;
+                default:
+                    if (isClientError(forecast.getErrorCode())) {
+                        setClientError(result, forecast.getErrorCode());
+                        break;
+                    }
+                    throw new IOException("Forecast error " + forecast.getErrorCode());
+            }
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (capture != null) {
+                capture.release();
+            }
+        }
+    }
+
+    /**
+     * @return true for a 4xx code other than 429, which no retry will change
+     */
+    static boolean isClientError(int code) {
+        return code >= HttpURLConnection.HTTP_BAD_REQUEST
+                && code < HttpURLConnection.HTTP_INTERNAL_ERROR
+                && code != HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Ends the fetch on a final client error: an unknown location for 404, a request the
+     * server won't serve for anything else.  Neither is a network failure, so the sync is not
+     * rescheduled for it.
+     */
+    private void setClientError(Result result, int code) {
+        if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+        } else {
+            Log.e(LOG_TAG, "Fetch of " + mLocationSetting + " refused with " + code);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        }
+        result.ioFailure = false;
+    }
+
+    /**
+     * @return the delay of a Retry-After header in seconds, or 0 if it is missing or an HTTP date
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return true if the provider holds forecast rows for this location from today onwards
+     */
+    private boolean hasStoredForecast() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        mLocationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasRows = cursor.moveToFirst();
+        cursor.close();
+        return hasRows;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Turns an OWM daily forecast response into a {@link ParsedForecast}.
+ */
+interface ForecastParser {
+
+    /**
+     * @param in the response body.  The parser reads it but does not close it.
+     * @throws IOException if the stream could not be read or was empty
+     * @throws JSONException if the response is not a well formed forecast
+     */
+    ParsedForecast parse(InputStream in) throws IOException, JSONException;
+}
@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fetches the forecast of a location while the user is still typing it, so that committing
+ * the new location fills the forecast list at once instead of waiting for a sync.
+ * <ul>
+ * <li>{@link #schedule} is called on every edit; once the text has been left alone for
+ * {@link #IDLE_MILLIS} the candidate is fetched in the background</li>
+ * <li>results are staged in memory, keyed by location string, for {@link #STAGED_MILLIS}; the
+ * last {@link #MAX_STAGED} candidates are kept</li>
+ * <li>{@link #promote} writes a staged forecast into the provider when the preference is
+ * committed, and marks the location fresh so the sync that follows is answered from the
+ * database</li>
+ * </ul>
+ * A candidate that turns out not to exist is staged too, so the invalid-location message also
+ * appears without waiting.  Scheduling and promoting happen on the main thread.
+ */
+public class ForecastPrefetcher {
+    private static final String LOG_TAG = ForecastPrefetcher.class.getSimpleName();
+
+    // How long the text must stay unchanged before the candidate is fetched
+    static final long IDLE_MILLIS = 800;
+    // A staged forecast older than this is not promoted; the regular sync fetches it again
+    static final long STAGED_MILLIS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    static final int MAX_STAGED = 3;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    // One prefetch at a time; a burst of candidates queues rather than fanning out
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    // Access-ordered, so the least recently used candidate is dropped first.  Guarded by itself.
+    private static final Map<String, Staged> sStaged =
+            new LinkedHashMap<String, Staged>(MAX_STAGED + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Staged> eldest) {
+                    return size() > MAX_STAGED;
+                }
+            };
+    // The debounced fetch that has not started yet, if any
+    private static Runnable sPending;
+
+    private static class Staged {
+        final ForecastFetchTask.Result result;
+        final long fetchedAt;
+
+        Staged(ForecastFetchTask.Result result, long fetchedAt) {
+            this.result = result;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private ForecastPrefetcher() {
+    }
+
+    /**
+     * Schedules a prefetch of the candidate location, replacing the one scheduled by the
+     * previous edit.
+     */
+    public static void schedule(Context context, final String candidate) {
+        final Context appContext = context.getApplicationContext();
+        if (sPending != null) {
+            sHandler.removeCallbacks(sPending);
+        }
+        sPending = new Runnable() {
+            @Override
+            public void run() {
+                sPending = null;
+                if (getStaged(candidate) != null) {
+                    return;
+                }
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetch(appContext, candidate);
+                    }
+                });
+            }
+        };
+        sHandler.postDelayed(sPending, IDLE_MILLIS);
+    }
+
+    /**
+     * Drops a prefetch that was scheduled but has not started, for when the editor closes.
+     */
+    public static void cancel() {
+        if (sPending != null) {
+            sHandler.removeCallbacks(sPending);
+            sPending = null;
+        }
+    }
+
+    private static void prefetch(Context context, String candidate) {
+        // No retries: the user is waiting, and the sync after the commit retries anyway
+        ForecastFetchTask.Result result = new ForecastFetchTask(context,
+                SunshineSyncAdapter.getForecastSource(context), candidate,
+                SunshineSyncAdapter.getForecastParser(null), new RetryPolicy(0, new Random()))
+                .call();
+        // The payload cache is filled by the regular sync; the staging area only needs rows
+        PayloadBufferPool.release(result.payload);
+        result.payload = null;
+
+        if (result.status != SunshineSyncAdapter.LOCATION_STATUS_OK
+                && result.status != SunshineSyncAdapter.LOCATION_STATUS_INVALID) {
+            Log.d(LOG_TAG, "Prefetch of " + candidate + " failed with status " + result.status);
+            return;
+        }
+        if (result.status == SunshineSyncAdapter.LOCATION_STATUS_OK && result.forecast == null) {
+            // Answered 304: the provider already holds this location
+            return;
+        }
+        synchronized (sStaged) {
+            sStaged.put(candidate, new Staged(result, System.currentTimeMillis()));
+        }
+        Log.d(LOG_TAG, "Staged " + candidate);
+    }
+
+    private static Staged getStaged(String location) {
+        synchronized (sStaged) {
+            Staged staged = sStaged.get(location);
+            if (staged != null && System.currentTimeMillis() - staged.fetchedAt > STAGED_MILLIS) {
+                sStaged.remove(location);
+                return null;
+            }
+            return staged;
+        }
+    }
+
+    /**
+     * Moves the staged forecast of a newly committed location into the provider.  The rows are
+     * written in the background; the location status and its freshness for the first days are
+     * updated at once.
+     *
+     * @return true if a forecast was staged for the location
+     */
+    public static boolean promote(Context context, final String location) {
+        final Staged staged;
+        synchronized (sStaged) {
+            staged = getStaged(location);
+            sStaged.remove(location);
+        }
+        if (staged == null) {
+            return false;
+        }
+        final Context appContext = context.getApplicationContext();
+        final ForecastFetchTask.Result result = staged.result;
+        LocationStatusStore.setStatus(appContext, location, result.status);
+        if (result.forecast == null) {
+            // Nothing to show; the sync will report the same
+            return true;
+        }
+        // The daily rows answer requests for the first days, but a full sync still has to
+        // bring the 3-hourly rows and refresh the other saved locations
+        SyncCoalescer.markSynced(appContext, location, SunshineSyncAdapter.SYNC_DEPTH_TODAY,
+                staged.fetchedAt);
+
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                ParsedForecast forecast = result.forecast;
+                long locationId = SunshineSyncAdapter.addLocation(appContext, location,
+                        forecast.getCityName(), forecast.getCityLatitude(),
+                        forecast.getCityLongitude(), forecast.getCityId());
+                List<ContentValues> days = forecast.getDays();
+                ContentValues[] values = new ContentValues[days.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = days.get(i);
+                    values[i].put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                int inserted = appContext.getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_URI, values);
+                appContext.getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI,
+                        SunshineSyncAdapter.freshnessValues(staged.fetchedAt, result.eTag,
+                                result.lastModified),
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{location});
+                ForecastValidators.save(appContext, location, result.eTag, result.lastModified);
+                Log.d(LOG_TAG, "Promoted " + inserted + " prefetched rows for " + location);
+                appContext.sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                        .setPackage(appContext.getPackageName()));
+                return null;
+            }
+        }.execute();
+        return true;
+    }
+}
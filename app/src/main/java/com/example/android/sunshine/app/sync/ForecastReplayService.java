@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the weather table from {@link PayloadCache} when it holds no current forecast, for
+ * instance on the first start after the database was wiped by an upgrade.  Replayed rows are
+ * shown straight away without a network round trip; the next real sync replaces them.
+ */
+public class ForecastReplayService extends IntentService {
+    private static final String LOG_TAG = ForecastReplayService.class.getSimpleName();
+
+    public ForecastReplayService() {
+        super("ForecastReplayService");
+    }
+
+    /**
+     * Starts the service.  It does nothing if the database already holds a current forecast.
+     */
+    public static void replayIfEmpty(Context context) {
+        context.startService(new Intent(context, ForecastReplayService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (hasCurrentForecast()) {
+            return;
+        }
+        Map<String, PayloadCache.Entry> entries = PayloadCache.read(this);
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        ForecastParser parser = SunshineSyncAdapter.getForecastParser(null);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int rows = 0;
+        for (PayloadCache.Entry entry : entries.values()) {
+            ParsedForecast forecast;
+            try {
+                forecast = parser.parse(entry.openStream());
+            } catch (IOException | JSONException e) {
+                Log.e(LOG_TAG, "Error replaying " + entry.locationSetting, e);
+                continue;
+            }
+            forecast.rebase(entry.savedAt);
+            List<ContentValues> days = forecast.getDays();
+            if (days.isEmpty()) {
+                continue;
+            }
+
+            long locationId = SunshineSyncAdapter.addLocation(this, entry.locationSetting,
+                    forecast.getCityName(), forecast.getCityLatitude(), forecast.getCityLongitude(),
+                    forecast.getCityId());
+            for (ContentValues weatherValues : days) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues)
+                        .build());
+            }
+            rows += days.size();
+            // The rows are as old as the payload, so readers asking for a max age revalidate
+            // them; the validators are not replayed with them
+            operations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(SunshineSyncAdapter.freshnessValues(entry.savedAt, null, null))
+                    .withSelection(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                            new String[] {entry.locationSetting})
+                    .build());
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        try {
+            getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing replayed forecasts", e);
+            return;
+        }
+        Log.d(LOG_TAG, "Replayed " + rows + " rows for " + entries.size()
+                + " locations from the payload cache");
+
+        // Widgets read the provider themselves; tell them there is something to show
+        sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED).setPackage(getPackageName()));
+    }
+
+    private boolean hasCurrentForecast() {
+        Cursor cursor = getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(System.currentTimeMillis()))},
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasRows = cursor.moveToFirst();
+        cursor.close();
+        return hasRows;
+    }
+}
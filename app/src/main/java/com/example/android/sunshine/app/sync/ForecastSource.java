@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the sync adapter gets its daily forecasts from.  The production source talks to
+ * OpenWeatherMap over HTTP; {@link ReplayForecastSource} serves recorded payloads from disk so
+ * the ingest, provider and widget pipeline can be exercised offline.
+ */
+public interface ForecastSource {
+
+    /**
+     * Requests the daily forecast for one location.  The validators make the request
+     * conditional; a source that supports them answers with
+     * {@link java.net.HttpURLConnection#HTTP_NOT_MODIFIED} and no body when they still match.
+     *
+     * @param locationSetting the location as entered in settings
+     * @param numDays how many days of forecast to ask for
+     * @param eTag the ETag of the stored forecast, or null
+     * @param lastModified the Last-Modified value of the stored forecast, or null
+     * @return the open response; the caller must close it
+     * @throws IOException if the forecast could not be fetched
+     */
+    Response fetch(String locationSetting, int numDays, String eTag, String lastModified)
+            throws IOException;
+
+    /**
+     * One response from a {@link ForecastSource}.
+     */
+    interface Response extends Closeable {
+
+        /**
+         * @return the HTTP status of the response
+         */
+        int getResponseCode() throws IOException;
+
+        /**
+         * @return the decoded body, ready to hand to a {@link ForecastParser}
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @return the value of the named response header, or null
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the bytes read from the underlying transport so far, before any decoding
+         */
+        long getWireBytes();
+    }
+}
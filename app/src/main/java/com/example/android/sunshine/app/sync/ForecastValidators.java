@@ -0,0 +1,84 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persists the HTTP cache validators (ETag and Last-Modified) of the last forecast stored for
+ * each location setting, so the next sync can ask the server whether anything changed.  Also
+ * keeps a running count of the syncs this short-circuited, which
+ * {@link com.example.android.sunshine.app.data.WeatherContract.SyncDiagnosticsEntry} reports.
+ */
+public class ForecastValidators {
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG_PREFIX = "etag:";
+    private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified:";
+    private static final String KEY_SHORT_CIRCUITED_COUNT = "short_circuited_count";
+
+    private ForecastValidators() {
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the ETag the server sent with the stored forecast for this location, or null
+     */
+    public static String getETag(Context context, String locationSetting) {
+        return getPrefs(context).getString(KEY_ETAG_PREFIX + locationSetting, null);
+    }
+
+    /**
+     * @return the Last-Modified value the server sent with the stored forecast, or null
+     */
+    public static String getLastModified(Context context, String locationSetting) {
+        return getPrefs(context).getString(KEY_LAST_MODIFIED_PREFIX + locationSetting, null);
+    }
+
+    /**
+     * Remembers the validators of a response once its rows have been stored.  A null value
+     * removes the validator, so a server that stops sending one is not asked with a stale one.
+     */
+    static void save(Context context, String locationSetting, String eTag, String lastModified) {
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        if (eTag != null) {
+            editor.putString(KEY_ETAG_PREFIX + locationSetting, eTag);
+        } else {
+            editor.remove(KEY_ETAG_PREFIX + locationSetting);
+        }
+        if (lastModified != null) {
+            editor.putString(KEY_LAST_MODIFIED_PREFIX + locationSetting, lastModified);
+        } else {
+            editor.remove(KEY_LAST_MODIFIED_PREFIX + locationSetting);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators for a location, forcing the next sync to download in full.
+     */
+    static void clear(Context context, String locationSetting) {
+        save(context, locationSetting, null, null);
+    }
+
+    /**
+     * Counts a sync the server answered in which no row changed, because every location got a
+     * 304 or the forecast already stored, so the widget/Muzei/Wear/notification fan-out was
+     * skipped.  Called once per sync rather than from each fetch thread, and synchronized so
+     * the read and the write of the count can't interleave with another caller's.
+     *
+     * @param shortCircuited whether this sync changed nothing and skipped the fan-out
+     * @return the number of short-circuited syncs so far, this one included
+     */
+    static synchronized long recordSync(Context context, boolean shortCircuited) {
+        SharedPreferences prefs = getPrefs(context);
+        long count = prefs.getLong(KEY_SHORT_CIRCUITED_COUNT, 0);
+        if (shortCircuited) {
+            count++;
+            prefs.edit().putLong(KEY_SHORT_CIRCUITED_COUNT, count).apply();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches the forecasts of several locations with one {@link GroupForecastSource} request and
+ * splits the response into one {@link ForecastFetchTask.Result} per location, matched by city
+ * ID.  Like {@link ForecastFetchTask} it never throws, and retries network and server errors as
+ * the shared {@link RetryPolicy} allows.
+ *
+ * <p>Locations the response leaves out get no result, and neither does any location if the
+ * response cannot be parsed; the caller fetches those one at a time.  Group results carry no
+ * validators or payload, so the next single fetch of such a location is unconditional.
+ */
+class GroupFetchTask implements Callable<Map<String, ForecastFetchTask.Result>> {
+    private static final String LOG_TAG = GroupFetchTask.class.getSimpleName();
+
+    // Not in HttpURLConnection
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final GroupForecastSource mSource;
+    private final Map<String, Long> mCityIds;
+    private final RetryPolicy mRetryPolicy;
+    // The largest Retry-After, in seconds, any attempt was answered with
+    private long mRetryAfterSeconds;
+
+    /**
+     * @param cityIds the locations to fetch, with their city IDs; at most
+     *                {@link GroupForecastSource#MAX_GROUP_SIZE} of them
+     */
+    GroupFetchTask(GroupForecastSource source, Map<String, Long> cityIds, RetryPolicy retryPolicy) {
+        mSource = source;
+        mCityIds = cityIds;
+        mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the results, keyed by location setting
+     */
+    @Override
+    public Map<String, ForecastFetchTask.Result> call() {
+        int failedAttempts = 0;
+        while (true) {
+            try {
+                return fetch();
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The sync was canceled and is discarding its results; don't retry
+                    Log.d(LOG_TAG, "Group fetch of " + mCityIds.size() + " cities canceled");
+                    return failAll();
+                }
+                failedAttempts++;
+                if (!mRetryPolicy.shouldRetry(failedAttempts)) {
+                    Log.e(LOG_TAG, "Error fetching " + mCityIds.size() + " cities, giving up after "
+                            + failedAttempts + " attempts", e);
+                    return failAll();
+                }
+                long delay = mRetryPolicy.getDelayMillis(failedAttempts);
+                Log.w(LOG_TAG, "Error fetching " + mCityIds.size() + " cities, retrying in "
+                        + delay + "ms: " + e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return failAll();
+                }
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Unusable group response, fetching cities one by one", e);
+                return new HashMap<>();
+            }
+        }
+    }
+
+    /**
+     * Makes one attempt at the group request.
+     *
+     * @throws IOException on network errors and on server errors worth retrying
+     */
+    private Map<String, ForecastFetchTask.Result> fetch() throws IOException, JSONException {
+        HttpTransport.Response response = null;
+        try {
+            long connectStart = System.currentTimeMillis();
+            response = mSource.fetch(mCityIds.values(), ForecastFetchTask.NUM_DAYS);
+            int responseCode = response.getResponseCode();
+            long connectMillis = System.currentTimeMillis() - connectStart;
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || responseCode == HTTP_TOO_MANY_REQUESTS) {
+                mRetryAfterSeconds = Math.max(mRetryAfterSeconds,
+                        ForecastFetchTask.parseRetryAfter(response.getHeader("Retry-After")));
+                throw new IOException("Server returned " + responseCode);
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new JSONException("Group request answered " + responseCode);
+            }
+
+            InputStream body = response.getBody();
+            TimingInputStream timing = new TimingInputStream(body);
+            long parseStart = System.currentTimeMillis();
+            List<ParsedForecast> forecasts = new GroupForecastParser().parse(timing);
+            long elapsed = System.currentTimeMillis() - parseStart;
+
+            Map<Long, String> locationsById = new HashMap<>();
+            for (Map.Entry<String, Long> entry : mCityIds.entrySet()) {
+                locationsById.put(entry.getValue(), entry.getKey());
+            }
+            Map<String, ForecastFetchTask.Result> results = new HashMap<>();
+            for (ParsedForecast forecast : forecasts) {
+                String locationSetting = locationsById.get(forecast.getCityId());
+                if (locationSetting == null || results.containsKey(locationSetting)) {
+                    continue;
+                }
+                ForecastFetchTask.Result result = new ForecastFetchTask.Result(locationSetting);
+                switch (forecast.getErrorCode()) {
+                    case HttpURLConnection.HTTP_OK:
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                        result.forecast = forecast;
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                        break;
+                    default:
+                        // Let the single fetch, with its own retries, deal with it
+                        continue;
+                }
+                if (results.isEmpty()) {
+                    // The request was shared; charge its cost to one location so the sync's
+                    // totals stay right
+                    result.requests = 1;
+                    result.connectMillis = connectMillis;
+                    result.downloadMillis = timing.getReadMillis();
+                    result.parseMillis = Math.max(0, elapsed - timing.getReadMillis());
+                    result.wireBytes = response.getWireBytes();
+                }
+                results.put(locationSetting, result);
+            }
+            Log.d(LOG_TAG, "Group fetch of " + mCityIds.size() + " cities returned "
+                    + results.size() + " in " + response.getWireBytes() + " bytes");
+            return results;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private Map<String, ForecastFetchTask.Result> failAll() {
+        Map<String, ForecastFetchTask.Result> results = new HashMap<>();
+        for (String locationSetting : mCityIds.keySet()) {
+            ForecastFetchTask.Result result = new ForecastFetchTask.Result(locationSetting);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            result.ioFailure = true;
+            result.retryAfterSeconds = mRetryAfterSeconds;
+            results.put(locationSetting, result);
+        }
+        return results;
+    }
+}
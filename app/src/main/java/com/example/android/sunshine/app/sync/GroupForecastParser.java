@@ -0,0 +1,61 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a group response into one {@link ParsedForecast} per city.  The response follows
+ * OWM's group envelope, <code>{"cnt": n, "list": [...]}</code>, where each element is a daily
+ * forecast for one city in the same form as a single-city response, so it is read by
+ * {@link JsonStreamForecastParser#readForecast}.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class GroupForecastParser {
+
+    /**
+     * @param in the response body.  The parser reads it but does not close it.
+     * @return the forecasts that carry a city ID, in the order the server sent them
+     * @throws JSONException if the response is not a well formed group
+     */
+    List<ParsedForecast> parse(InputStream in) throws IOException, JSONException {
+        List<ParsedForecast> forecasts = new ArrayList<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            boolean hasList = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OwmJson.LIST.equals(name)) {
+                    hasList = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        ParsedForecast forecast = JsonStreamForecastParser.readForecast(reader);
+                        // An entry that cannot be matched back is left out; its location is
+                        // then fetched on its own
+                        if (forecast.getCityId() != 0) {
+                            forecasts.add(forecast);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            JsonStreamForecastParser.require(hasList, OwmJson.LIST);
+            return forecasts;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw JsonStreamForecastParser.toJsonException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+
+/**
+ * Asks one endpoint for the daily forecasts of many cities at once, by their OWM city IDs, in
+ * the style of OWM's group endpoint.  OWM's own group endpoint only serves current conditions,
+ * so there is no default URL: group fetches are made only when the build sets the
+ * GROUP_FORECAST_URL property to such an endpoint, or a source has been set with
+ * {@link SunshineSyncAdapter#setGroupForecastSource}.
+ */
+class GroupForecastSource {
+    // OWM accepts at most this many IDs per group request
+    static final int MAX_GROUP_SIZE = 20;
+
+    private static final String IDS_PARAM = "id";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final String mBaseUrl;
+    private final String mApiKey;
+    private final HttpTransport mTransport;
+
+    /**
+     * @param baseUrl the endpoint, to which the query parameters are appended
+     */
+    GroupForecastSource(String baseUrl, String apiKey) {
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+        mTransport = HttpTransport.getDefault();
+    }
+
+    /**
+     * Requests the forecasts of up to {@link #MAX_GROUP_SIZE} cities.
+     *
+     * @return the open response; the caller must close it
+     * @throws IOException if the forecasts could not be fetched
+     */
+    HttpTransport.Response fetch(Collection<Long> cityIds, int numDays) throws IOException {
+        if (cityIds.size() > MAX_GROUP_SIZE) {
+            throw new IllegalArgumentException(cityIds.size() + " cities in one group");
+        }
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(IDS_PARAM, TextUtils.join(",", cityIds))
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+        return mTransport.get(new URL(builtUri.toString()), null);
+    }
+}
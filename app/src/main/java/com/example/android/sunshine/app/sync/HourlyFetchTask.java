@@ -0,0 +1,66 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses the 3-hourly forecast for one location.  The hourly series supplements
+ * the daily forecast, which alone decides the location status, so a failure here is logged and
+ * reported as a null result rather than retried.
+ */
+class HourlyFetchTask implements Callable<ParsedForecast> {
+    private static final String LOG_TAG = HourlyFetchTask.class.getSimpleName();
+
+    // How many 3-hour steps to request: five days' worth
+    static final int NUM_STEPS = 40;
+
+    private final ForecastSource mSource;
+    private final String mLocationSetting;
+
+    HourlyFetchTask(ForecastSource source, String locationSetting) {
+        mSource = source;
+        mLocationSetting = locationSetting;
+    }
+
+    /**
+     * @return the parsed steps, or null if they could not be fetched
+     */
+    @Override
+    public ParsedForecast call() {
+        ForecastSource.Response response = null;
+        try {
+            response = mSource.fetch(mLocationSetting, NUM_STEPS, null, null);
+            if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, mLocationSetting + ": server returned " + response.getResponseCode());
+                return null;
+            }
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                return null;
+            }
+            ParsedForecast forecast = new HourlyForecastParser().parse(inputStream);
+            if (forecast.getErrorCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, mLocationSetting + ": forecast error " + forecast.getErrorCode());
+                return null;
+            }
+            return forecast;
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error fetching hourly forecast for " + mLocationSetting, e);
+            return null;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
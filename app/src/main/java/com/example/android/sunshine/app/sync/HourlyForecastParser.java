@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Streams an OWM 3-hourly forecast into the steps of a {@link ParsedForecast}.  A response
+ * carries about eight times as many entries as the daily one, so, like
+ * {@link JsonStreamForecastParser}, it never builds the object tree.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class HourlyForecastParser implements ForecastParser {
+
+    @Override
+    public ParsedForecast parse(InputStream in) throws IOException, JSONException {
+        ParsedForecast forecast = new ParsedForecast();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            boolean hasList = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OwmJson.MESSAGE_CODE.equals(name)) {
+                    forecast.setErrorCode(reader.nextInt());
+                } else if (OwmJson.CITY.equals(name)) {
+                    JsonStreamForecastParser.readCity(reader, forecast);
+                } else if (OwmJson.LIST.equals(name)) {
+                    hasList = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readStep(reader, forecast);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (forecast.getErrorCode() == HttpURLConnection.HTTP_OK) {
+                JsonStreamForecastParser.require(hasList, OwmJson.LIST);
+                JsonStreamForecastParser.require(forecast.getCityName() != null, OwmJson.CITY);
+            }
+            return forecast;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private static void readStep(JsonReader reader, ParsedForecast forecast)
+            throws IOException, JSONException {
+        long dateTime = -1;
+        double temperature = Double.NaN;
+        double pressure = Double.NaN;
+        double humidity = Double.NaN;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        String description = null;
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OwmJson.DATE_TIME.equals(name)) {
+                dateTime = reader.nextLong() * 1000;
+            } else if (OwmJson.MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OwmJson.TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                    } else if (OwmJson.PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                    } else if (OwmJson.HUMIDITY.equals(mainName)) {
+                        humidity = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OwmJson.WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OwmJson.WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OwmJson.WIND_DIRECTION.equals(windName)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OwmJson.WEATHER.equals(name)) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OwmJson.DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OwmJson.WEATHER_ID.equals(weatherName)) {
+                            weatherId = (int) reader.nextDouble();
+                            hasWeatherId = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        JsonStreamForecastParser.require(dateTime >= 0, OwmJson.DATE_TIME);
+        JsonStreamForecastParser.require(!Double.isNaN(temperature), OwmJson.TEMPERATURE);
+        JsonStreamForecastParser.require(!Double.isNaN(pressure), OwmJson.PRESSURE);
+        JsonStreamForecastParser.require(!Double.isNaN(humidity), OwmJson.HUMIDITY);
+        JsonStreamForecastParser.require(!Double.isNaN(windSpeed), OwmJson.WINDSPEED);
+        JsonStreamForecastParser.require(!Double.isNaN(windDirection), OwmJson.WIND_DIRECTION);
+        JsonStreamForecastParser.require(description != null, OwmJson.DESCRIPTION);
+        JsonStreamForecastParser.require(hasWeatherId, OwmJson.WEATHER_ID);
+
+        forecast.addStep(dateTime, temperature, pressure, humidity, windSpeed, windDirection,
+                description, weatherId);
+    }
+}
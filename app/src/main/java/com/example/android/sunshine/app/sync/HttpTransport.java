@@ -0,0 +1,384 @@
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one way the app talks HTTP.  Every request gets connect and read timeouts and a cap on
+ * the size of its body, and every response is released so that the platform can keep its
+ * connection alive for the next request to the same host:
+ * <ul>
+ * <li>a body read to the end is closed, which hands the socket back to the platform's pool</li>
+ * <li>a body closed early is drained, up to {@link #DRAIN_LIMIT_BYTES}, for the same reason</li>
+ * <li>only a body too long to drain, or a failed request, disconnects the socket</li>
+ * </ul>
+ * Requests ask for gzip, and bodies are inflated here, so the wire bytes can be counted.
+ *
+ * <p>{@link HttpURLConnection} does not say whether it reused a socket, so the transport keeps
+ * its own tally of the connections it released cleanly, per host, and expires them after the
+ * platform's keep-alive time.  A request that finds one counts as likely reused; that is an
+ * estimate, since the platform may have closed the socket or opened another anyway.
+ *
+ * <p>A blocked socket read does not notice that its thread was interrupted, so the transport
+ * also remembers which connection each thread has open; {@link #abort} disconnects it, which
+ * fails the read at once.
+ */
+public class HttpTransport {
+    private static final String LOG_TAG = HttpTransport.class.getSimpleName();
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) (15 * DateUtils.SECOND_IN_MILLIS);
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = (int) (20 * DateUtils.SECOND_IN_MILLIS);
+    // A 14-day forecast is under 10KB and 40 hourly steps under 20KB
+    static final long DEFAULT_MAX_BODY_BYTES = 512 * 1024;
+
+    // Unread body bytes worth reading to save a new connection
+    static final int DRAIN_LIMIT_BYTES = 16 * 1024;
+    // How long, and how many, idle connections the platform keeps per host
+    private static final long KEEP_ALIVE_MILLIS = 5 * DateUtils.MINUTE_IN_MILLIS;
+    private static final int MAX_IDLE_PER_HOST = 5;
+
+    // The platform pool is shared by the whole process, so the counters are too
+    private static final AtomicLong sRequests = new AtomicLong();
+    private static final AtomicLong sLikelyReused = new AtomicLong();
+    private static final AtomicLong sFirstByteMillis = new AtomicLong();
+    // Release times of the connections left idle in the pool, newest last, by host and port
+    private static final Map<String, Deque<Long>> sIdle = new HashMap<>();
+    // The connection each thread is using, from the request until its response is closed
+    private static final Map<Thread, HttpURLConnection> sOpen = new HashMap<>();
+
+    private static HttpTransport sDefault;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mMaxBodyBytes;
+
+    /**
+     * A snapshot of the process-wide counters.
+     */
+    public static class Stats {
+        // Requests that got a response
+        public final long requests;
+        // Of those, the ones the transport's tally says likely went over a socket kept alive
+        // from an earlier request; an estimate, see the class comment
+        public final long likelyReused;
+        // Time from opening each request to the response headers, summed
+        public final long firstByteMillis;
+
+        Stats(long requests, long likelyReused, long firstByteMillis) {
+            this.requests = requests;
+            this.likelyReused = likelyReused;
+            this.firstByteMillis = firstByteMillis;
+        }
+
+        /**
+         * @return the counts accumulated between an earlier snapshot and this one
+         */
+        public Stats since(Stats earlier) {
+            return new Stats(requests - earlier.requests,
+                    likelyReused - earlier.likelyReused,
+                    firstByteMillis - earlier.firstByteMillis);
+        }
+
+        /**
+         * @return the estimated fraction of requests that reused a socket, or 0 if none were made
+         */
+        public double getReuseRatio() {
+            return requests > 0 ? (double) likelyReused / requests : 0;
+        }
+    }
+
+    /**
+     * @return the transport used for forecast sync, with the default timeouts and body limit
+     */
+    public static synchronized HttpTransport getDefault() {
+        if (sDefault == null) {
+            sDefault = new HttpTransport(DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_BODY_BYTES);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param connectTimeoutMillis how long to wait for the socket to connect
+     * @param readTimeoutMillis how long any one read, including the wait for the response
+     *                          headers, may block
+     * @param maxBodyBytes the largest body to accept, both on the wire and once inflated
+     */
+    public HttpTransport(int connectTimeoutMillis, int readTimeoutMillis, long maxBodyBytes) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * @return the counters accumulated by every transport in this process
+     */
+    public static Stats getStats() {
+        return new Stats(sRequests.get(), sLikelyReused.get(), sFirstByteMillis.get());
+    }
+
+    /**
+     * Sends a GET and waits for the response headers.
+     *
+     * @param headers request headers to add; may be null
+     * @return the open response; the caller must close it
+     * @throws IOException if no response arrived in time
+     * @throws InterruptedIOException if the calling thread was interrupted or
+     * {@link #abort aborted}
+     */
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted before requesting " + url.getHost());
+        }
+        String host = url.getHost() + ":" + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        register(connection);
+        try {
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setRequestMethod("GET");
+            // Asking for gzip explicitly turns off the platform's transparent decoding, so
+            // getBody() has to inflate it; in return we can count wire bytes.
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            boolean reused = takeIdle(host);
+            int responseCode = connection.getResponseCode();
+            long firstByteMillis = System.currentTimeMillis() - start;
+
+            sRequests.incrementAndGet();
+            if (reused) {
+                sLikelyReused.incrementAndGet();
+            }
+            sFirstByteMillis.addAndGet(firstByteMillis);
+
+            long contentLength = getContentLength(connection);
+            if (contentLength > mMaxBodyBytes) {
+                throw new IOException(url.getHost() + " sent " + contentLength
+                        + " bytes, more than the limit of " + mMaxBodyBytes);
+            }
+            return new Response(connection, host, responseCode, firstByteMillis, reused);
+        } catch (IOException | RuntimeException e) {
+            unregister(connection);
+            connection.disconnect();
+            if (Thread.currentThread().isInterrupted() && !(e instanceof InterruptedIOException)) {
+                throw new InterruptedIOException("Request to " + url.getHost() + " aborted");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Disconnects the request or response the thread has open, if any, so that a read it is
+     * blocked in fails now instead of at the read timeout.  The thread should be interrupted as
+     * well, or it may simply retry.
+     */
+    public static void abort(Thread thread) {
+        HttpURLConnection connection;
+        synchronized (sOpen) {
+            connection = sOpen.remove(thread);
+        }
+        if (connection != null) {
+            Log.d(LOG_TAG, "Aborting " + connection.getURL().getHost() + " for " + thread.getName());
+            connection.disconnect();
+        }
+    }
+
+    private static void register(HttpURLConnection connection) {
+        synchronized (sOpen) {
+            sOpen.put(Thread.currentThread(), connection);
+        }
+    }
+
+    private static void unregister(HttpURLConnection connection) {
+        synchronized (sOpen) {
+            if (sOpen.get(Thread.currentThread()) == connection) {
+                sOpen.remove(Thread.currentThread());
+            }
+        }
+    }
+
+    private static long getContentLength(HttpURLConnection connection) {
+        // getContentLength() is an int before API 24
+        String value = connection.getHeaderField("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean takeIdle(String host) {
+        synchronized (sIdle) {
+            Deque<Long> idle = sIdle.get(host);
+            if (idle == null) {
+                return false;
+            }
+            long oldest = System.currentTimeMillis() - KEEP_ALIVE_MILLIS;
+            while (!idle.isEmpty() && idle.peekFirst() < oldest) {
+                idle.pollFirst();
+            }
+            // The pool hands out its most recently used connection first
+            return idle.pollLast() != null;
+        }
+    }
+
+    private static void putIdle(String host) {
+        synchronized (sIdle) {
+            Deque<Long> idle = sIdle.get(host);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                sIdle.put(host, idle);
+            }
+            if (idle.size() == MAX_IDLE_PER_HOST) {
+                idle.pollFirst();
+            }
+            idle.addLast(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * One response.  Closing it releases the connection for reuse when it can.
+     */
+    public class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final String mHost;
+        private final int mResponseCode;
+        private final long mFirstByteMillis;
+        private final boolean mLikelyReused;
+        private CountingInputStream mWireStream;
+        private InputStream mBufferedStream;
+        private InputStream mBody;
+
+        Response(HttpURLConnection connection, String host, int responseCode,
+                 long firstByteMillis, boolean likelyReused) {
+            mConnection = connection;
+            mHost = host;
+            mResponseCode = responseCode;
+            mFirstByteMillis = firstByteMillis;
+            mLikelyReused = likelyReused;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * @return the value of the named response header, or null
+         */
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded body, which fails with an IOException once it runs past the
+         * transport's limit
+         * @throws IOException if the response is an error, which has no body
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                openStreams(mConnection.getInputStream());
+                InputStream in = mBufferedStream;
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    in = new GZIPInputStream(in, 8 * 1024);
+                }
+                mBody = new BoundedInputStream(in, mMaxBodyBytes);
+            }
+            return mBody;
+        }
+
+        private void openStreams(InputStream raw) {
+            mWireStream = new CountingInputStream(new BoundedInputStream(raw, mMaxBodyBytes));
+            mBufferedStream = new BufferedInputStream(mWireStream, 8 * 1024);
+        }
+
+        /**
+         * @return the bytes read from the socket so far, before any decoding
+         */
+        public long getWireBytes() {
+            return mWireStream != null ? mWireStream.getCount() : 0;
+        }
+
+        /**
+         * @return the time from opening the request to the response headers
+         */
+        public long getFirstByteMillis() {
+            return mFirstByteMillis;
+        }
+
+        public boolean isLikelyReused() {
+            return mLikelyReused;
+        }
+
+        /**
+         * Reads whatever is left of the body, up to {@link #DRAIN_LIMIT_BYTES}, so the socket
+         * can go back to the pool; disconnects it if that is not possible, or if the thread was
+         * interrupted and should not spend any longer on it.
+         */
+        @Override
+        public void close() throws IOException {
+            unregister(mConnection);
+            boolean released = false;
+            try {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (mBufferedStream == null) {
+                    // The body was never asked for; an error response keeps it elsewhere
+                    InputStream raw = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getErrorStream() : mConnection.getInputStream();
+                    if (raw == null) {
+                        released = true;
+                        return;
+                    }
+                    openStreams(raw);
+                }
+                released = drain(mBufferedStream);
+                mBufferedStream.close();
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Could not release connection to " + mHost + ": " + e);
+                released = false;
+            } finally {
+                if (released) {
+                    putIdle(mHost);
+                } else {
+                    mConnection.disconnect();
+                }
+            }
+        }
+
+        private boolean drain(InputStream in) throws IOException {
+            byte[] buffer = new byte[4 * 1024];
+            long drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > DRAIN_LIMIT_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Pulls an OWM daily forecast off the stream token by token.  Each day is turned into its row
+ * as soon as its closing brace is read, so neither the response String nor the JSON object
+ * tree is ever built.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class JsonStreamForecastParser implements ForecastParser {
+
+    @Override
+    public ParsedForecast parse(InputStream in) throws IOException, JSONException {
+        // An empty body is an EOFException, as from the tree parser; tell it apart from a body
+        // that ends too soon, which JsonReader also reports with one
+        PushbackInputStream body = new PushbackInputStream(in);
+        int first = body.read();
+        if (first == -1) {
+            throw new EOFException("Empty forecast response");
+        }
+        body.unread(first);
+
+        JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException
+                | EOFException e) {
+            // Keep the same contract as the tree parser: a bad payload is a JSONException, only
+            // a failed read is an IOException.
+            throw toJsonException(e);
+        }
+    }
+
+    /**
+     * Reads one daily forecast object, the whole of a daily response or one element of a
+     * group response.
+     */
+    static ParsedForecast readForecast(JsonReader reader) throws IOException, JSONException {
+        ParsedForecast forecast = new ParsedForecast();
+        boolean hasList = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OwmJson.MESSAGE_CODE.equals(name)) {
+                // OWM sends "cod" as a string on some endpoints; nextInt() accepts both
+                forecast.setErrorCode(reader.nextInt());
+            } else if (OwmJson.CITY.equals(name)) {
+                readCity(reader, forecast);
+            } else if (OwmJson.LIST.equals(name)) {
+                hasList = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readDay(reader, forecast);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast.getErrorCode() == HttpURLConnection.HTTP_OK) {
+            if (!hasList) {
+                throw new JSONException("No value for " + OwmJson.LIST);
+            }
+            if (forecast.getCityName() == null) {
+                throw new JSONException("No value for " + OwmJson.CITY);
+            }
+        }
+        return forecast;
+    }
+
+    static JSONException toJsonException(Exception e) {
+        JSONException jsonException = new JSONException(e.getMessage());
+        jsonException.initCause(e);
+        return jsonException;
+    }
+
+    static void readCity(JsonReader reader, ParsedForecast forecast)
+            throws IOException, JSONException {
+        String cityName = null;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OwmJson.CITY_ID.equals(name)) {
+                forecast.setCityId(reader.nextLong());
+            } else if (OwmJson.CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OwmJson.COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OwmJson.LATITUDE.equals(coordName)) {
+                        latitude = reader.nextDouble();
+                    } else if (OwmJson.LONGITUDE.equals(coordName)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        require(cityName != null, OwmJson.CITY_NAME);
+        require(!Double.isNaN(latitude), OwmJson.LATITUDE);
+        require(!Double.isNaN(longitude), OwmJson.LONGITUDE);
+        forecast.setCity(cityName, latitude, longitude);
+    }
+
+    private static void readDay(JsonReader reader, ParsedForecast forecast)
+            throws IOException, JSONException {
+        double pressure = Double.NaN;
+        double humidity = Double.NaN;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        double high = Double.NaN;
+        double low = Double.NaN;
+        String description = null;
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OwmJson.PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OwmJson.HUMIDITY.equals(name)) {
+                humidity = reader.nextDouble();
+            } else if (OwmJson.WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OwmJson.WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OwmJson.TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OwmJson.MAX.equals(tempName)) {
+                        high = reader.nextDouble();
+                    } else if (OwmJson.MIN.equals(tempName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OwmJson.WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // Only the first element is read; anything after it is skipped.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OwmJson.DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OwmJson.WEATHER_ID.equals(weatherName)) {
+                            weatherId = (int) reader.nextDouble();
+                            hasWeatherId = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        require(!Double.isNaN(pressure), OwmJson.PRESSURE);
+        require(!Double.isNaN(humidity), OwmJson.HUMIDITY);
+        require(!Double.isNaN(windSpeed), OwmJson.WINDSPEED);
+        require(!Double.isNaN(windDirection), OwmJson.WIND_DIRECTION);
+        require(!Double.isNaN(high), OwmJson.MAX);
+        require(!Double.isNaN(low), OwmJson.MIN);
+        require(description != null, OwmJson.DESCRIPTION);
+        require(hasWeatherId, OwmJson.WEATHER_ID);
+
+        // The tree parser's getInt() truncates, so do the same here
+        forecast.addDay(pressure, (int) humidity, windSpeed, windDirection, high, low,
+                description, weatherId);
+    }
+
+    static void require(boolean present, String name) throws JSONException {
+        if (!present) {
+            throw new JSONException("No value for " + name);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * The original parser: reads the whole response into a String and lets {@link JSONObject} build
+ * the complete object tree before any row is extracted.  Kept so it can be compared against
+ * {@link JsonStreamForecastParser} on the same payloads, and for devices older than Honeycomb.
+ */
+class JsonTreeForecastParser implements ForecastParser {
+
+    @Override
+    public ParsedForecast parse(InputStream in) throws IOException, JSONException {
+        // Read the raw bytes and decode them once, rather than allocating a String per line
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+        byte[] chunk = new byte[8 * 1024];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+
+        if (buffer.size() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Empty forecast response");
+        }
+        return parse(buffer.toString("UTF-8"));
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     *
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     */
+    ParsedForecast parse(String forecastJsonStr) throws JSONException {
+        ParsedForecast forecast = new ParsedForecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if ( forecastJson.has(OwmJson.MESSAGE_CODE) ) {
+            forecast.setErrorCode(forecastJson.getInt(OwmJson.MESSAGE_CODE));
+            if (forecast.getErrorCode() != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OwmJson.LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OwmJson.CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OwmJson.COORD);
+        forecast.setCity(cityJson.getString(OwmJson.CITY_NAME),
+                cityCoord.getDouble(OwmJson.LATITUDE),
+                cityCoord.getDouble(OwmJson.LONGITUDE));
+        forecast.setCityId(cityJson.optLong(OwmJson.CITY_ID));
+
+        for(int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject = dayForecast.getJSONArray(OwmJson.WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OwmJson.TEMPERATURE);
+
+            forecast.addDay(dayForecast.getDouble(OwmJson.PRESSURE),
+                    dayForecast.getInt(OwmJson.HUMIDITY),
+                    dayForecast.getDouble(OwmJson.WINDSPEED),
+                    dayForecast.getDouble(OwmJson.WIND_DIRECTION),
+                    temperatureObject.getDouble(OwmJson.MAX),
+                    temperatureObject.getDouble(OwmJson.MIN),
+                    weatherObject.getString(OwmJson.DESCRIPTION),
+                    weatherObject.getInt(OwmJson.WEATHER_ID));
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds the outcome of the last sync of each location in memory.  The preferences are read
+ * once, on first use; after that updates change the memory copy under a lock, are written
+ * back on a background thread, and are pushed to registered listeners.  The sync thread never
+ * waits on preference I/O and the UI never reads the preference files again.
+ *
+ * <p>The status of the preferred location is kept apart from the per-location statuses
+ * because it is reset to unknown when the user picks a new location, before that location
+ * has been synced.  Listeners are always called on the main thread.
+ */
+public class LocationStatusStore {
+
+    /**
+     * Told when the status of the preferred location changes.
+     */
+    public interface Listener {
+        void onLocationStatusChanged(@SunshineSyncAdapter.LocationStatus int status);
+    }
+
+    private static final Object sLock = new Object();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    // Writes are queued here one at a time, so they land on disk in order
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+    // Only touched on the main thread
+    private static final List<Listener> sListeners = new ArrayList<>();
+
+    // Null until loaded from the preferences
+    private static Map<String, Integer> sStatuses;
+    private static int sPreferredStatus;
+    // Changes not yet handed to the writer
+    private static final Map<String, Integer> sPending = new HashMap<>();
+    private static boolean sPreferredPending;
+    private static boolean sWriteQueued;
+
+    private LocationStatusStore() {
+    }
+
+    private static void ensureLoaded(Context context) {
+        // Called with sLock held
+        if (sStatuses != null) {
+            return;
+        }
+        sStatuses = new HashMap<>();
+        Map<String, ?> stored = context.getSharedPreferences(
+                Utility.LOCATION_STATUS_PREFS_NAME, Context.MODE_PRIVATE).getAll();
+        for (Map.Entry<String, ?> entry : stored.entrySet()) {
+            if (entry.getValue() instanceof Integer) {
+                sStatuses.put(entry.getKey(), (Integer) entry.getValue());
+            }
+        }
+        sPreferredStatus = PreferenceManager.getDefaultSharedPreferences(context).getInt(
+                context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * @return the status of the last sync of the preferred location
+     */
+    @SuppressWarnings("ResourceType")
+    public static @SunshineSyncAdapter.LocationStatus int getPreferredStatus(Context context) {
+        synchronized (sLock) {
+            ensureLoaded(context);
+            return sPreferredStatus;
+        }
+    }
+
+    /**
+     * @return the status of the last sync of the given location
+     */
+    @SuppressWarnings("ResourceType")
+    public static @SunshineSyncAdapter.LocationStatus int getStatus(Context context,
+                                                                   String locationSetting) {
+        synchronized (sLock) {
+            ensureLoaded(context);
+            Integer status = sStatuses.get(locationSetting);
+            return status != null ? status : SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        }
+    }
+
+    /**
+     * Records the outcome of syncing a location, and makes it the preferred status as well if
+     * the location is the preferred one.
+     */
+    static void setStatus(Context context, String locationSetting,
+                          @SunshineSyncAdapter.LocationStatus int status) {
+        boolean preferred = locationSetting.equals(Utility.getPreferredLocation(context));
+        boolean notify;
+        synchronized (sLock) {
+            ensureLoaded(context);
+            Integer previous = sStatuses.put(locationSetting, status);
+            if (previous == null || previous != status) {
+                sPending.put(locationSetting, status);
+            }
+            notify = preferred && sPreferredStatus != status;
+            if (notify) {
+                sPreferredStatus = status;
+                sPreferredPending = true;
+            }
+            schedulePersist(context);
+        }
+        if (notify) {
+            dispatch(status);
+        }
+    }
+
+    /**
+     * Marks the preferred location as not yet synced, for when the user picks a new one.
+     */
+    public static void resetPreferredStatus(Context context) {
+        int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        synchronized (sLock) {
+            ensureLoaded(context);
+            if (sPreferredStatus == status) {
+                return;
+            }
+            sPreferredStatus = status;
+            sPreferredPending = true;
+            schedulePersist(context);
+        }
+        dispatch(status);
+    }
+
+    /**
+     * Registers a listener.  Must be called on the main thread.
+     */
+    public static void addListener(Listener listener) {
+        if (!sListeners.contains(listener)) {
+            sListeners.add(listener);
+        }
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static void schedulePersist(Context context) {
+        // Called with sLock held.  Changes made while a write is queued ride along with it.
+        if (sWriteQueued || (sPending.isEmpty() && !sPreferredPending)) {
+            return;
+        }
+        sWriteQueued = true;
+        final Context appContext = context.getApplicationContext();
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                persist(appContext);
+            }
+        });
+    }
+
+    private static void persist(Context context) {
+        Map<String, Integer> changed;
+        Integer preferredStatus = null;
+        synchronized (sLock) {
+            changed = new HashMap<>(sPending);
+            sPending.clear();
+            sWriteQueued = false;
+            if (sPreferredPending) {
+                preferredStatus = sPreferredStatus;
+                sPreferredPending = false;
+            }
+        }
+
+        // This is the writer thread, so the synchronous commit() keeps writes in order
+        // without queueing work that Activity and Service shutdown would wait for
+        if (!changed.isEmpty()) {
+            SharedPreferences.Editor perLocation = context.getSharedPreferences(
+                    Utility.LOCATION_STATUS_PREFS_NAME, Context.MODE_PRIVATE).edit();
+            for (Map.Entry<String, Integer> entry : changed.entrySet()) {
+                perLocation.putInt(entry.getKey(), entry.getValue());
+            }
+            perLocation.commit();
+        }
+        if (preferredStatus != null) {
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .putInt(context.getString(R.string.pref_location_status_key), preferredStatus)
+                    .commit();
+        }
+    }
+
+    private static void dispatch(final int status) {
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Copied so a listener may unregister itself
+                for (Listener listener : new ArrayList<>(sListeners)) {
+                    listener.onLocationStatusChanged(status);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fetches forecasts from the OpenWeatherMap API.  The default instance asks for the daily
+ * forecast; one built on {@link #HOURLY_FORECAST_BASE_URL} asks for the 3-hourly one, where
+ * the count is in steps rather than days.  Requests go through the shared
+ * {@link HttpTransport}.
+ */
+class OwmForecastSource implements ForecastSource {
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final String mBaseUrl;
+    private final String mApiKey;
+    private final HttpTransport mTransport;
+
+    OwmForecastSource() {
+        this(FORECAST_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    OwmForecastSource(String baseUrl, String apiKey) {
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+        mTransport = HttpTransport.getDefault();
+    }
+
+    @Override
+    public Response fetch(String locationSetting, int numDays, String eTag, String lastModified)
+            throws IOException {
+        // Construct the URL for the OpenWeatherMap query
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+
+        Map<String, String> headers = new HashMap<>();
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        return new HttpResponse(mTransport.get(new URL(builtUri.toString()), headers));
+    }
+
+    private static class HttpResponse implements Response {
+        private final HttpTransport.Response mResponse;
+
+        HttpResponse(HttpTransport.Response response) {
+            mResponse = response;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponse.getResponseCode();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return mResponse.getBody();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mResponse.getHeader(name);
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mResponse.getWireBytes();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mResponse.close();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * These are the names of the JSON objects that need to be extracted from an OWM response.
+ */
+final class OwmJson {
+    // Location information
+    static final String CITY = "city";
+    static final String CITY_ID = "id";
+    static final String CITY_NAME = "name";
+    static final String COORD = "coord";
+
+    // Location coordinate
+    static final String LATITUDE = "lat";
+    static final String LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String LIST = "list";
+
+    static final String PRESSURE = "pressure";
+    static final String HUMIDITY = "humidity";
+    static final String WINDSPEED = "speed";
+    static final String WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String TEMPERATURE = "temp";
+    static final String MAX = "max";
+    static final String MIN = "min";
+
+    static final String WEATHER = "weather";
+    static final String DESCRIPTION = "main";
+    static final String WEATHER_ID = "id";
+
+    static final String MESSAGE_CODE = "cod";
+
+    // The 3-hourly endpoint nests a step's readings under "main" and "wind", and gives its
+    // time in seconds since the epoch in "dt"
+    static final String DATE_TIME = "dt";
+    static final String MAIN = "main";
+    static final String WIND = "wind";
+
+    private OwmJson() {
+    }
+}
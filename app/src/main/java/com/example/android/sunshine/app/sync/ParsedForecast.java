@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ColumnBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The location and day rows pulled out of one OWM daily forecast response.  Both the tree and
+ * the streaming {@link ForecastParser} fill one of these, so everything downstream of the parse
+ * is the same whichever parser was used.  The {@link HourlyForecastParser} fills the 3-hourly
+ * steps instead of the days.
+ */
+class ParsedForecast {
+    private int mErrorCode = HttpURLConnection.HTTP_OK;
+    private long mCityId;
+    private String mCityName;
+    private double mCityLatitude;
+    private double mCityLongitude;
+
+    private final List<ContentValues> mDays = new ArrayList<>();
+    private final List<ContentValues> mSteps = new ArrayList<>();
+    private int mJulianStartDay;
+    private final Time mDayTime;
+
+    ParsedForecast() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    int getErrorCode() {
+        return mErrorCode;
+    }
+
+    void setErrorCode(int errorCode) {
+        mErrorCode = errorCode;
+    }
+
+    /**
+     * @return OWM's ID for the city, or 0 if the response did not include one
+     */
+    long getCityId() {
+        return mCityId;
+    }
+
+    void setCityId(long cityId) {
+        mCityId = cityId;
+    }
+
+    String getCityName() {
+        return mCityName;
+    }
+
+    double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    void setCity(String cityName, double latitude, double longitude) {
+        mCityName = cityName;
+        mCityLatitude = latitude;
+        mCityLongitude = longitude;
+    }
+
+    /**
+     * Appends the next day of the forecast.  Days must be added in the order the server sent
+     * them; the date of each row is derived from its position.  The location key is left out
+     * because the location row may not exist until the whole response has been read.
+     */
+    void addDay(double pressure, int humidity, double windSpeed, double windDirection,
+                double high, double low, String description, int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + mDays.size());
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        mDays.add(weatherValues);
+    }
+
+    /**
+     * Re-dates the days of a response that was received earlier than now, as when it is replayed
+     * from {@link PayloadCache}.  Days that are already over are dropped.
+     *
+     * @param receivedMillis when the response was originally received
+     */
+    void rebase(long receivedMillis) {
+        Time receivedTime = new Time();
+        receivedTime.set(receivedMillis);
+        int receivedStartDay = Time.getJulianDay(receivedMillis, receivedTime.gmtoff);
+        int daysPast = Math.min(mJulianStartDay - receivedStartDay, mDays.size());
+        if (daysPast <= 0) {
+            return;
+        }
+        // Day i of the response was receivedStartDay + i, so the first daysPast days are over
+        mDays.subList(0, daysPast).clear();
+        for (int i = 0; i < mDays.size(); i++) {
+            mDays.get(i).put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    mDayTime.setJulianDay(mJulianStartDay + i));
+        }
+    }
+
+    List<ContentValues> getDays() {
+        return mDays;
+    }
+
+    /**
+     * Appends one step of a 3-hourly forecast.  As with days, the location key is left out.
+     *
+     * @param dateTime the start of the step in milliseconds since the epoch
+     */
+    void addStep(long dateTime, double temperature, double pressure, double humidity,
+                 double windSpeed, double windDirection, String description, int weatherId) {
+        ContentValues stepValues = new ContentValues();
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_DATE_TIME, dateTime);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP, temperature);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, pressure);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidity);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, windSpeed);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, windDirection);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, description);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherId);
+        mSteps.add(stepValues);
+    }
+
+    List<ContentValues> getSteps() {
+        return mSteps;
+    }
+
+    /**
+     * @return the 3-hourly steps laid out by column, ready to insert for the location
+     */
+    ColumnBatch getStepBatch(long locationId) {
+        int count = mSteps.size();
+        long[] locationIds = new long[count];
+        long[] dateTimes = new long[count];
+        int[] weatherIds = new int[count];
+        String[] descriptions = new String[count];
+        double[] temperatures = new double[count];
+        double[] humidities = new double[count];
+        double[] pressures = new double[count];
+        double[] windSpeeds = new double[count];
+        double[] windDirections = new double[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues step = mSteps.get(i);
+            locationIds[i] = locationId;
+            dateTimes[i] = step.getAsLong(WeatherContract.HourlyEntry.COLUMN_DATE_TIME);
+            weatherIds[i] = step.getAsInteger(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID);
+            descriptions[i] = step.getAsString(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC);
+            temperatures[i] = step.getAsDouble(WeatherContract.HourlyEntry.COLUMN_TEMP);
+            humidities[i] = step.getAsDouble(WeatherContract.HourlyEntry.COLUMN_HUMIDITY);
+            pressures[i] = step.getAsDouble(WeatherContract.HourlyEntry.COLUMN_PRESSURE);
+            windSpeeds[i] = step.getAsDouble(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED);
+            windDirections[i] = step.getAsDouble(WeatherContract.HourlyEntry.COLUMN_DEGREES);
+        }
+        return new ColumnBatch()
+                .put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationIds)
+                .put(WeatherContract.HourlyEntry.COLUMN_DATE_TIME, dateTimes)
+                .put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherIds)
+                .put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, descriptions)
+                .put(WeatherContract.HourlyEntry.COLUMN_TEMP, temperatures)
+                .put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidities)
+                .put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, pressures)
+                .put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, windSpeeds)
+                .put(WeatherContract.HourlyEntry.COLUMN_DEGREES, windDirections);
+    }
+
+    /**
+     * @return the normalized date of the last day before this forecast starts.  Rows on or
+     * before it are history and can be cleaned up.
+     */
+    long getYesterday() {
+        return mDayTime.setJulianDay(mJulianStartDay - 1);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.sunshine.app.sync;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small pool of direct buffers for keeping raw response bytes.  Direct buffers can be handed
+ * to a FileChannel without another copy, and pooling them means a sync that keeps its payload
+ * does not allocate a fresh 100K block every three hours.
+ */
+final class PayloadBufferPool {
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int MAX_POOLED = 2;
+
+    private static final List<ByteBuffer> sPool = new ArrayList<>(MAX_POOLED);
+
+    private PayloadBufferPool() {
+    }
+
+    /**
+     * @return a cleared direct buffer with at least minCapacity bytes remaining
+     */
+    static synchronized ByteBuffer acquire(int minCapacity) {
+        for (int i = 0; i < sPool.size(); i++) {
+            ByteBuffer buffer = sPool.get(i);
+            if (buffer.capacity() >= minCapacity) {
+                sPool.remove(i);
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(Math.max(minCapacity, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Returns a buffer to the pool.  The caller must not touch it afterwards.
+     */
+    static synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        if (sPool.size() < MAX_POOLED) {
+            sPool.add(buffer);
+        } else {
+            // Keep the largest buffers; the smallest one is the least useful to hold on to
+            int smallest = 0;
+            for (int i = 1; i < sPool.size(); i++) {
+                if (sPool.get(i).capacity() < sPool.get(smallest).capacity()) {
+                    smallest = i;
+                }
+            }
+            if (sPool.get(smallest).capacity() < buffer.capacity()) {
+                sPool.set(smallest, buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last successful OWM response for each location on disk, so the provider can be
+ * rebuilt without the network after the database is wiped or upgraded.
+ *
+ * <p>All payloads live in one file of length-prefixed frames after a magic number:
+ * <pre>
+ *   int magic
+ *   repeated: int locationLength, byte[] location (UTF-8), long savedAt,
+ *             int payloadLength, byte[] payload (the decoded JSON body)
+ * </pre>
+ * The file is read back through a read-only memory map, so replaying never copies a payload
+ * onto the Java heap before the parser sees it.  It is rewritten whole on every save, through
+ * a temporary file and a rename, so a crash mid-write leaves the previous file intact.
+ */
+class PayloadCache {
+    private static final String LOG_TAG = PayloadCache.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast_payloads";
+    private static final int MAGIC = 0x53554e31; // "SUN1"
+    // A payload this old only holds days that are already over
+    private static final long MAX_AGE_MILLIS = ForecastFetchTask.NUM_DAYS * DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * One cached response.  The payload is a view of the mapped file, positioned at 0.
+     */
+    static class Entry {
+        final String locationSetting;
+        final long savedAt;
+        final ByteBuffer payload;
+
+        Entry(String locationSetting, long savedAt, ByteBuffer payload) {
+            this.locationSetting = locationSetting;
+            this.savedAt = savedAt;
+            this.payload = payload;
+        }
+
+        InputStream openStream() {
+            return new ByteBufferInputStream(payload.duplicate());
+        }
+    }
+
+    private PayloadCache() {
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Maps the cache file and splits it into its frames.  A truncated or foreign file reads as
+     * empty rather than failing.
+     *
+     * @return the cached payloads, keyed and ordered by location
+     */
+    static synchronized Map<String, Entry> read(Context context) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        File file = getFile(context);
+        if (!file.isFile()) {
+            return entries;
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < 4 || map.getInt() != MAGIC) {
+                Log.w(LOG_TAG, "Ignoring unrecognised payload cache");
+                return entries;
+            }
+            long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+            while (map.hasRemaining()) {
+                byte[] location = new byte[map.getInt()];
+                map.get(location);
+                long savedAt = map.getLong();
+                int length = map.getInt();
+                ByteBuffer payload = map.slice();
+                payload.limit(length);
+                map.position(map.position() + length);
+                if (savedAt >= oldest) {
+                    String locationSetting = new String(location, "UTF-8");
+                    entries.put(locationSetting, new Entry(locationSetting, savedAt, payload));
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            Log.w(LOG_TAG, "Payload cache is truncated, keeping " + entries.size() + " entries");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading payload cache", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing payload cache", e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces the cached payloads of the given locations, keeping those of other locations
+     * that are still saved.
+     *
+     * @param payloads the decoded response bodies, positioned at 0; they are not modified
+     */
+    static synchronized void save(Context context, Map<String, ByteBuffer> payloads,
+                                  List<String> savedLocations) {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : read(context).values()) {
+            if (!payloads.containsKey(entry.locationSetting)
+                    && savedLocations.contains(entry.locationSetting)) {
+                entries.add(entry);
+            }
+        }
+        for (Map.Entry<String, ByteBuffer> payload : payloads.entrySet()) {
+            entries.add(new Entry(payload.getKey(), now, payload.getValue()));
+        }
+
+        File file = getFile(context);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            FileChannel channel = out.getChannel();
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            magic.putInt(MAGIC).flip();
+            writeFully(channel, magic);
+            for (Entry entry : entries) {
+                byte[] location = entry.locationSetting.getBytes("UTF-8");
+                ByteBuffer header = ByteBuffer.allocate(4 + location.length + 8 + 4);
+                header.putInt(location.length).put(location)
+                        .putLong(entry.savedAt).putInt(entry.payload.remaining());
+                header.flip();
+                writeFully(channel, header);
+                // Direct and mapped buffers go to the file without another copy
+                writeFully(channel, entry.payload.duplicate());
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            Log.d(LOG_TAG, "Cached " + entries.size() + " forecast payloads");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing payload cache", e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing payload cache", e);
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.Properties;
+
+/**
+ * Serves recorded OWM responses from local files, with a configurable first-byte latency and
+ * transfer rate.  This lets the whole ingest, provider and widget pipeline be load-tested
+ * offline, and reproduces a slow server deterministically.
+ *
+ * <p>Each location is served from {@code <directory>/<url-encoded location>.json}, falling
+ * back to {@code <directory>/default.json}.  The ETag of a response is derived from the file's
+ * size and modification time, so conditional requests behave like they do against the server.
+ * Latency and rate can be set in an optional {@code replay.properties} in the same directory
+ * ({@code latency_ms} and {@code bytes_per_second}).  A recording with more days than a request
+ * asks for is cut down to that many, as the server would with {@code cnt}.
+ */
+public class ReplayForecastSource implements ForecastSource {
+    static final String DEFAULT_PAYLOAD = "default.json";
+    static final String PROPERTIES_FILE = "replay.properties";
+    private static final String PROPERTY_LATENCY = "latency_ms";
+    private static final String PROPERTY_RATE = "bytes_per_second";
+
+    private final File mDirectory;
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+
+    /**
+     * @param directory where the recorded payloads live
+     * @param latencyMillis how long to wait before the response is returned
+     * @param bytesPerSecond how fast to deliver the body, or 0 for as fast as possible
+     */
+    public ReplayForecastSource(File directory, long latencyMillis, long bytesPerSecond) {
+        mDirectory = directory;
+        mLatencyMillis = latencyMillis;
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Creates a source for the directory, configured from its replay.properties if present.
+     */
+    public static ReplayForecastSource fromDirectory(File directory) throws IOException {
+        Properties properties = new Properties();
+        File propertiesFile = new File(directory, PROPERTIES_FILE);
+        if (propertiesFile.isFile()) {
+            InputStream in = new FileInputStream(propertiesFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        try {
+            return new ReplayForecastSource(directory,
+                    Long.parseLong(properties.getProperty(PROPERTY_LATENCY, "0")),
+                    Long.parseLong(properties.getProperty(PROPERTY_RATE, "0")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + PROPERTIES_FILE + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Response fetch(String locationSetting, int numDays, String eTag, String lastModified)
+            throws IOException {
+        File payload = new File(mDirectory, URLEncoder.encode(locationSetting, "UTF-8") + ".json");
+        if (!payload.isFile()) {
+            payload = new File(mDirectory, DEFAULT_PAYLOAD);
+        }
+        if (!payload.isFile()) {
+            throw new FileNotFoundException("No recorded forecast for " + locationSetting);
+        }
+
+        if (mLatencyMillis > 0) {
+            try {
+                Thread.sleep(mLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while simulating latency");
+            }
+        }
+
+        byte[] trimmed = trim(payload, numDays);
+        String payloadETag = "\"" + payload.length() + "-" + payload.lastModified()
+                + (trimmed != null ? "-" + numDays : "") + "\"";
+        boolean notModified = payloadETag.equals(eTag);
+        return new ReplayResponse(payload, trimmed, payloadETag, notModified, mBytesPerSecond);
+    }
+
+    /**
+     * @return the recording with its list cut to the first numDays entries, or null if it has
+     * no more than that, or no list to cut
+     */
+    private static byte[] trim(File payload, int numDays) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) payload.length());
+        InputStream in = new FileInputStream(payload);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            JSONObject forecastJson = new JSONObject(bytes.toString("UTF-8"));
+            JSONArray days = forecastJson.optJSONArray("list");
+            if (days == null || days.length() <= numDays) {
+                return null;
+            }
+            JSONArray kept = new JSONArray();
+            for (int i = 0; i < numDays; i++) {
+                kept.put(days.get(i));
+            }
+            forecastJson.put("list", kept);
+            forecastJson.put("cnt", numDays);
+            return forecastJson.toString().getBytes("UTF-8");
+        } catch (JSONException e) {
+            // Not a forecast, say a recorded error; serve it as it is
+            return null;
+        }
+    }
+
+    private static class ReplayResponse implements Response {
+        private final File mPayload;
+        // the trimmed body to serve instead of the file, or null
+        private final byte[] mTrimmed;
+        private final String mETag;
+        private final boolean mNotModified;
+        private final long mBytesPerSecond;
+        private CountingInputStream mBody;
+
+        ReplayResponse(File payload, byte[] trimmed, String eTag, boolean notModified,
+                       long bytesPerSecond) {
+            mPayload = payload;
+            mTrimmed = trimmed;
+            mETag = eTag;
+            mNotModified = notModified;
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mNotModified ? HttpURLConnection.HTTP_NOT_MODIFIED : HttpURLConnection.HTTP_OK;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream in = mTrimmed != null ? new ByteArrayInputStream(mTrimmed)
+                        : new FileInputStream(mPayload);
+                if (mBytesPerSecond > 0) {
+                    in = new ThrottledInputStream(in, mBytesPerSecond);
+                }
+                mBody = new CountingInputStream(in);
+            }
+            return mBody;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return "ETag".equalsIgnoreCase(name) ? mETag : null;
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mBody != null ? mBody.getCount() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBody != null) {
+                mBody.close();
+            }
+        }
+    }
+
+    /**
+     * Delivers bytes no faster than the configured rate, measured from the first read.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        // Keep each read small enough that the rate is smooth rather than bursty
+        private static final int MAX_CHUNK = 1024;
+
+        private final long mBytesPerSecond;
+        private long mStartNanos;
+        private long mDelivered;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttle();
+            int b = super.read();
+            if (b != -1) {
+                mDelivered++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            throttle();
+            int read = super.read(buffer, offset, Math.min(count, MAX_CHUNK));
+            if (read > 0) {
+                mDelivered += read;
+            }
+            return read;
+        }
+
+        private void throttle() throws IOException {
+            if (mStartNanos == 0) {
+                mStartNanos = System.nanoTime();
+                return;
+            }
+            long dueMillis = mDelivered * 1000 / mBytesPerSecond;
+            long elapsedMillis = (System.nanoTime() - mStartNanos) / 1000000;
+            if (dueMillis > elapsedMillis) {
+                try {
+                    Thread.sleep(dueMillis - elapsedMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling replay");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether and when a failed forecast request is tried again within the same sync.
+ * Delays grow exponentially from {@link #BASE_DELAY_MILLIS} up to {@link #MAX_DELAY_MILLIS}
+ * with full jitter, so locations that failed together do not retry in lockstep.  One policy is
+ * shared by all fetches of a sync and holds its retry budget, so a server that is really down
+ * costs a few retries in total rather than a few per saved location.
+ */
+class RetryPolicy {
+    // Attempts per location, including the first one
+    static final int MAX_ATTEMPTS = 3;
+    // Retries shared by all locations of one sync
+    static final int SYNC_RETRY_BUDGET = 4;
+    static final long BASE_DELAY_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 8000;
+    // How long the framework should hold off the next sync after retries were exhausted, unless
+    // the server said otherwise with Retry-After
+    static final long MIN_RESCHEDULE_SECONDS = 60;
+
+    private final AtomicInteger mBudget;
+    private final Random mRandom;
+
+    RetryPolicy() {
+        this(SYNC_RETRY_BUDGET, new Random());
+    }
+
+    RetryPolicy(int budget, Random random) {
+        mBudget = new AtomicInteger(budget);
+        mRandom = random;
+    }
+
+    /**
+     * Takes one retry from the budget if the request may be tried again.
+     *
+     * @param failedAttempts how many attempts at this request have failed so far
+     */
+    boolean shouldRetry(int failedAttempts) {
+        if (failedAttempts >= MAX_ATTEMPTS) {
+            return false;
+        }
+        return mBudget.getAndDecrement() > 0;
+    }
+
+    /**
+     * @return how long to wait before the next attempt: a random delay up to the exponential
+     * ceiling for this attempt
+     */
+    long getDelayMillis(int failedAttempts) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (failedAttempts - 1));
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+
+    /**
+     * @param retryAfterSeconds the largest Retry-After the server sent, or 0
+     * @return the time, in seconds since the epoch, before which the framework should not run
+     * the next sync; the format {@link android.content.SyncResult#delayUntil} expects
+     */
+    long getDelayUntil(long retryAfterSeconds) {
+        long delay = Math.max(retryAfterSeconds,
+                MIN_RESCHEDULE_SECONDS + mRandom.nextInt((int) MIN_RESCHEDULE_SECONDS));
+        return System.currentTimeMillis() / 1000 + delay;
+    }
+}
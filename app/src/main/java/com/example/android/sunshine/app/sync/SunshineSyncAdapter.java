@@ -7,11 +7,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,12 +24,12 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.TextUtils;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
@@ -35,27 +37,32 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.SyncDiagnostics;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.example.android.sunshine.app.service.WearForecaseUpdateService;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
-    public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    public static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
@@ -93,288 +100,748 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final String EXTRA_LOW_TEMP = "LOW_TEMP";
     public static final String EXTRA_WEATHER_ID = "WEATHER_ID";
     public static final String EXTRA_TOMORROW_WEATHER_ID = "TOMORROW_WEATHER_ID";
+
+    // Sync extra that selects the original JSONObject tree parser instead of the streaming one
+    public static final String SYNC_EXTRAS_TREE_PARSER = "tree_parser";
+    // Sync extra: how many days of forecast to fetch and write.  Absent means a full sync.
+    public static final String SYNC_EXTRAS_DEPTH = "depth";
+
+    // Today and tomorrow, all the watch face, the today widget and the notification show.  A
+    // sync this shallow fetches the preferred location only and skips the 3-hourly steps.
+    public static final int SYNC_DEPTH_TODAY = 2;
+    // Every day we keep, as the periodic sync fetches
+    public static final int SYNC_DEPTH_FULL = ForecastFetchTask.NUM_DAYS;
     private static String mTodayHigh = "";
     private static String mTodayLow = "";
     private static int mTodayWeatherId;
     private static int mTomorrowWeatherId;
 
+    // Forecasts for different locations are fetched and parsed concurrently, but never more
+    // than this many at a time, so a long list of saved locations cannot flood the radio.
+    private static final int MAX_PARALLEL_FETCHES = 3;
+    // Cancelling one of its futures also aborts the connection the fetch has open.
+    private static final ThreadPoolExecutor sFetchExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>()) {
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new AbortableFetch<>(callable);
+        }
+    };
+
+    static {
+        // Don't keep idle fetch threads around for the three hours between syncs
+        sFetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // How long fan-out consumers may run before the sync stops waiting for them.  The
+    // notification gets longer because it may download its large icon.
+    private static final long FAN_OUT_DEADLINE_MILLIS = 2000;
+    private static final long NOTIFICATION_DEADLINE_MILLIS = 10000;
+
+    // 3-hourly steps that started longer ago than this are deleted
+    private static final long HOURLY_RETENTION_MILLIS = 3 * 60 * 60 * 1000;
+
+    // Debug builds replay recorded payloads instead of calling OWM when this directory exists
+    static final String REPLAY_DIRECTORY = "replay";
+    private static volatile ForecastSource sForecastSource;
+    private static volatile GroupForecastSource sGroupForecastSource;
+
+    // Set by onSyncCanceled; checked by the running sync at each phase boundary
+    private volatile boolean mCanceled;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.e(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        try {
+            performSync(extras, provider, syncResult);
+        } finally {
+            // However the sync ended, even by an unexpected exception, callers must not stay
+            // attached to a sync that is gone
+            SyncCoalescer.onSyncEnded(getContext());
+        }
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    private void performSync(Bundle extras, ContentProviderClient provider, SyncResult syncResult) {
+        Log.e(LOG_TAG, "Starting sync");
+        mCanceled = false;
+        long syncStart = System.currentTimeMillis();
+        HttpTransport.Stats transportStart = HttpTransport.getStats();
+        int depth = Math.max(1, Math.min(SYNC_DEPTH_FULL,
+                extras.getInt(SYNC_EXTRAS_DEPTH, SYNC_DEPTH_FULL)));
+        boolean fullDepth = depth == SYNC_DEPTH_FULL;
+        List<String> locations = fullDepth ? Utility.getSavedLocations(getContext())
+                : Collections.singletonList(Utility.getPreferredLocation(getContext()));
+        SyncCoalescer.onSyncStarted(locations, depth);
+        ForecastSource source = getForecastSource(getContext());
+        ForecastParser parser = getForecastParser(extras);
+
+        // Fetch and parse every saved location concurrently.  Each task reports its own
+        // failure in its result, so one bad location does not abort the others.  Locations with
+        // a known city ID are fetched in groups when a group source is set.
+        RetryPolicy retryPolicy = new RetryPolicy();
+        List<Future<Map<String, ForecastFetchTask.Result>>> groupFutures = new ArrayList<>();
+        List<String> singles = submitGroupFetches(provider, locations, retryPolicy, groupFutures);
+        List<Future<ForecastFetchTask.Result>> futures = submitFetches(singles, depth, source,
+                parser, retryPolicy);
+
+        // The 3-hourly series comes from OWM only and needs the streaming parser
+        List<Future<ParsedForecast>> hourlyFutures = new ArrayList<>(locations.size());
+        ForecastSource hourlySource = getHourlyForecastSource(source);
+        if (hourlySource != null && fullDepth) {
+            for (String location : locations) {
+                hourlyFutures.add(sFetchExecutor.submit(new HourlyFetchTask(hourlySource, location)));
+            }
+        }
 
+        // A canceled or superseded sync stops at the next phase boundary.  The fetches in flight
+        // are interrupted and their connections aborted, and a write in progress is rolled back
+        // by the provider.  Nothing downstream is told, since the sync that supersedes this one
+        // will tell it.
+        List<ForecastFetchTask.Result> results = new ArrayList<>();
+        long writeStart;
+        int changed;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            results.addAll(collectFetches(singles, futures));
+            // Locations a group response left out are fetched one at a time after all
+            List<String> leftOver = collectGroupFetches(groupFutures, locations, singles, results);
+            futures = submitFetches(leftOver, depth, source, parser, retryPolicy);
+            results.addAll(collectFetches(leftOver, futures));
+            checkCanceled();
+
+            // Locations that still failed after their retries are soft errors: the framework
+            // backs off and runs the sync again, no earlier than the server asked for.
+            long retryAfterSeconds = 0;
+            for (ForecastFetchTask.Result result : results) {
+                if (result.ioFailure) {
+                    syncResult.stats.numIoExceptions++;
+                    retryAfterSeconds = Math.max(retryAfterSeconds, result.retryAfterSeconds);
+                }
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (syncResult.stats.numIoExceptions > 0) {
+                syncResult.delayUntil = retryPolicy.getDelayUntil(retryAfterSeconds);
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            writeStart = System.currentTimeMillis();
+            try {
+                changed = storeForecasts(provider, results, fullDepth, syncResult);
+            } finally {
+                releasePayloads(results);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            storeHourlyForecasts(provider, locations, hourlyFutures, syncResult);
+            checkCanceled();
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync canceled");
+            cancelAll(futures);
+            cancelAll(groupFutures);
+            cancelAll(hourlyFutures);
+            releasePayloads(results);
+            Thread.currentThread().interrupt();
+            SyncCoalescer.onSyncFinished(getContext(), new ArrayList<String>(), false);
+            return;
+        }
+        long writeMillis = System.currentTimeMillis() - writeStart;
+        if (syncResult.stats.numIoExceptions == results.size() && !results.isEmpty()) {
+            // Every location failed; fall back to the cached payloads if nothing is stored
+            ForecastReplayService.replayIfEmpty(getContext());
+        }
+
+        // A 304 counts as a full forecast's worth of unchanged rows
+        int received = 0;
+        int requests = 0;
+        List<String> synced = new ArrayList<>(results.size());
+        for (ForecastFetchTask.Result result : results) {
+            setLocationStatus(getContext(), result.locationSetting, result.status);
+            if (result.status == LOCATION_STATUS_OK && !syncResult.databaseError) {
+                synced.add(result.locationSetting);
+            } else if (result.status == LOCATION_STATUS_INVALID) {
+                // Asking again within the freshness window would get the same 404, so an
+                // unknown saved location must not keep every request from being coalesced
+                synced.add(result.locationSetting);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            requests += result.requests;
+            if (result.notModified) {
+                received += ForecastFetchTask.NUM_DAYS;
+            } else if (result.forecast != null) {
+                received += result.forecast.getDays().size();
             }
         }
-        return;
+        // The server answered but nothing changed, so the fan-out below is skipped
+        boolean shortCircuited = requests > 0 && changed == 0;
+        long shortCircuitedCount = ForecastValidators.recordSync(getContext(), shortCircuited);
+        if (fullDepth) {
+            // The schedule adapts to how much of the whole forecast changes between syncs
+            SyncScheduler.onSyncFinished(getContext(), changed, received);
+        }
+
+        // If no row changed there is nothing new to show, so skip the whole fan-out.  Otherwise
+        // tell everyone at once; a slow consumer is abandoned at its deadline.
+        long fanOutMillis = 0;
+        if (changed > 0) {
+            fanOutMillis = new FanOutStage()
+                    .add("widgets", FAN_OUT_DEADLINE_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateWidgets();
+                        }
+                    })
+                    .add("muzei", FAN_OUT_DEADLINE_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateMuzei();
+                        }
+                    })
+                    .add("wear", FAN_OUT_DEADLINE_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateWear();
+                        }
+                    })
+                    .add("notification", NOTIFICATION_DEADLINE_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyWeather();
+                        }
+                    })
+                    .run();
+        }
+        SyncCoalescer.onSyncFinished(getContext(), synced, changed > 0);
+        recordDiagnostics(syncStart, results, writeMillis, fanOutMillis, changed,
+                HttpTransport.getStats().since(transportStart), shortCircuited,
+                shortCircuitedCount);
+        Log.d(LOG_TAG, "Sync Complete. " + locations.size() + " locations, " + changed + " rows changed");
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Asks the running sync to stop.  The framework calls this when the sync is canceled, and
+     * {@link SyncCoalescer} causes it when a newer request supersedes the sync.  The default
+     * implementation interrupts the sync thread; the flag also catches a phase that swallowed
+     * the interrupt.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    @Override
+    public void onSyncCanceled() {
+        Log.d(LOG_TAG, "Canceling sync");
+        mCanceled = true;
+        super.onSyncCanceled();
+    }
 
-        // These are the names of the JSON objects that need to be extracted.
+    /**
+     * @throws InterruptedException if the sync was canceled
+     */
+    private void checkCanceled() throws InterruptedException {
+        if (mCanceled || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Sync canceled");
+        }
+    }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    private static void releasePayloads(List<ForecastFetchTask.Result> results) {
+        for (ForecastFetchTask.Result result : results) {
+            PayloadBufferPool.release(result.payload);
+            result.payload = null;
+        }
+    }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    private List<Future<ForecastFetchTask.Result>> submitFetches(List<String> locations,
+            int depth, ForecastSource source, ForecastParser parser, RetryPolicy retryPolicy) {
+        List<Future<ForecastFetchTask.Result>> futures = new ArrayList<>(locations.size());
+        for (String location : locations) {
+            futures.add(sFetchExecutor.submit(new ForecastFetchTask(getContext(), source,
+                    location, parser, retryPolicy, depth)));
+        }
+        return futures;
+    }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    /**
+     * Waits for the single-location fetches.  A task that threw counts as a network failure.
+     *
+     * @throws InterruptedException if the sync was interrupted; the fetches are cancelled
+     */
+    private List<ForecastFetchTask.Result> collectFetches(List<String> locations,
+            List<Future<ForecastFetchTask.Result>> futures) throws InterruptedException {
+        List<ForecastFetchTask.Result> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                cancelAll(futures);
+                throw e;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error fetching " + locations.get(i), e);
+                ForecastFetchTask.Result failed = new ForecastFetchTask.Result(locations.get(i));
+                failed.status = LOCATION_STATUS_SERVER_DOWN;
+                failed.ioFailure = true;
+                results.add(failed);
+            }
+        }
+        return results;
+    }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    /**
+     * Starts a {@link GroupFetchTask} for each {@link GroupForecastSource#MAX_GROUP_SIZE}
+     * locations whose city ID is known, if there is a group source and there are at least two
+     * such locations.
+     *
+     * @param groupFutures receives the group fetches
+     * @return the locations left to fetch one at a time
+     */
+    private List<String> submitGroupFetches(ContentProviderClient provider, List<String> locations,
+            RetryPolicy retryPolicy,
+            List<Future<Map<String, ForecastFetchTask.Result>>> groupFutures) {
+        GroupForecastSource groupSource = getGroupForecastSource();
+        if (groupSource == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return locations;
+        }
+        Map<String, Long> cityIds = getCityIds(provider, locations);
+        if (cityIds.size() < 2) {
+            return locations;
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        List<String> singles = new ArrayList<>(locations.size() - cityIds.size());
+        Map<String, Long> group = new HashMap<>();
+        for (String location : locations) {
+            Long cityId = cityIds.get(location);
+            if (cityId == null) {
+                singles.add(location);
+                continue;
+            }
+            group.put(location, cityId);
+            if (group.size() == GroupForecastSource.MAX_GROUP_SIZE) {
+                groupFutures.add(sFetchExecutor.submit(new GroupFetchTask(groupSource, group,
+                        retryPolicy)));
+                group = new HashMap<>();
+            }
+        }
+        if (!group.isEmpty()) {
+            groupFutures.add(sFetchExecutor.submit(new GroupFetchTask(groupSource, group,
+                    retryPolicy)));
+        }
+        return singles;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Waits for the group fetches and adds their results.
+     *
+     * @param singles the locations that were not grouped
+     * @return the grouped locations that got no result, to be fetched one at a time
+     * @throws InterruptedException if the sync was interrupted
+     */
+    private List<String> collectGroupFetches(
+            List<Future<Map<String, ForecastFetchTask.Result>>> groupFutures,
+            List<String> locations, List<String> singles,
+            List<ForecastFetchTask.Result> results) throws InterruptedException {
+        Map<String, ForecastFetchTask.Result> groupResults = new HashMap<>();
+        for (Future<Map<String, ForecastFetchTask.Result>> future : groupFutures) {
+            try {
+                groupResults.putAll(future.get());
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error in group fetch", e);
+            }
+        }
+        results.addAll(groupResults.values());
 
-        final String OWM_MESSAGE_CODE = "cod";
+        List<String> leftOver = new ArrayList<>();
+        if (groupFutures.isEmpty()) {
+            return leftOver;
+        }
+        for (String location : locations) {
+            if (!singles.contains(location) && !groupResults.containsKey(location)) {
+                leftOver.add(location);
+            }
+        }
+        return leftOver;
+    }
 
+    /**
+     * @return the city IDs stored for those of the given locations that have one
+     */
+    private static Map<String, Long> getCityIds(ContentProviderClient provider,
+                                                List<String> locations) {
+        Map<String, Long> cityIds = new HashMap<>();
+        Cursor cursor;
+        try {
+            cursor = provider.query(WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                    WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NOT NULL", null, null);
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Error reading city IDs", e);
+            return cityIds;
+        }
+        if (cursor == null) {
+            return cityIds;
+        }
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            while (cursor.moveToNext()) {
+                String location = cursor.getString(0);
+                if (locations.contains(location)) {
+                    cityIds.put(location, cursor.getLong(1));
                 }
             }
+        } finally {
+            cursor.close();
+        }
+        return cityIds;
+    }
+
+    /**
+     * A fetch whose cancellation, besides interrupting its thread, disconnects the socket that
+     * thread may be blocked reading.
+     */
+    private static class AbortableFetch<T> extends FutureTask<T> {
+        private volatile Thread mRunner;
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        AbortableFetch(Callable<T> callable) {
+            super(callable);
+        }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+        @Override
+        public void run() {
+            mRunner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                mRunner = null;
+            }
+        }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean canceled = super.cancel(mayInterruptIfRunning);
+            Thread runner = mRunner;
+            if (canceled && mayInterruptIfRunning && runner != null) {
+                HttpTransport.abort(runner);
+            }
+            return canceled;
+        }
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Adds the phase timings of this sync to {@link SyncDiagnostics}, where they can be read
+     * back from {@link WeatherContract.SyncDiagnosticsEntry#CONTENT_URI}.
+     */
+    private static void recordDiagnostics(long syncStart, List<ForecastFetchTask.Result> results,
+                                          long writeMillis, long fanOutMillis, int rowsWritten,
+                                          HttpTransport.Stats transport, boolean shortCircuited,
+                                          long shortCircuitedCount) {
+        long connectMillis = 0;
+        long downloadMillis = 0;
+        long parseMillis = 0;
+        long bytesRead = 0;
+        for (ForecastFetchTask.Result result : results) {
+            connectMillis += result.connectMillis;
+            downloadMillis += result.downloadMillis;
+            parseMillis += result.parseMillis;
+            bytesRead += result.wireBytes;
+        }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_START_TIME, syncStart);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_LOCATIONS, results.size());
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_CONNECT_MILLIS, connectMillis);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_DOWNLOAD_MILLIS, downloadMillis);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_PARSE_MILLIS, parseMillis);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_DB_WRITE_MILLIS, writeMillis);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_FAN_OUT_MILLIS, fanOutMillis);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_TOTAL_MILLIS,
+                System.currentTimeMillis() - syncStart);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_BYTES_READ, bytesRead);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_ROWS_WRITTEN, rowsWritten);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_REQUESTS, transport.requests);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_LIKELY_REUSED,
+                transport.likelyReused);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_FIRST_BYTE_MILLIS,
+                transport.firstByteMillis);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_SHORT_CIRCUITED,
+                shortCircuited ? 1 : 0);
+        values.put(WeatherContract.SyncDiagnosticsEntry.COLUMN_SHORT_CIRCUITED_COUNT,
+                shortCircuitedCount);
+        SyncDiagnostics.record(values);
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * Overrides where forecasts come from, for instance with a {@link ReplayForecastSource} to
+     * load-test the pipeline offline.  Pass null to go back to the default source.
+     */
+    public static void setForecastSource(ForecastSource source) {
+        sForecastSource = source;
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Turns on group fetches for locations whose city ID is known, against an endpoint that
+     * serves daily forecasts in OWM's group style, such as a proxy or a local stand-in server.
+     * Pass null to go back to the endpoint the build was configured with, if any.
+     */
+    static void setGroupForecastSource(GroupForecastSource source) {
+        sGroupForecastSource = source;
+    }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * Picks the group source for this sync: the override if one was set, else the endpoint the
+     * build was configured with through the GROUP_FORECAST_URL property, else none.
+     */
+    static GroupForecastSource getGroupForecastSource() {
+        GroupForecastSource source = sGroupForecastSource;
+        if (source != null || TextUtils.isEmpty(BuildConfig.GROUP_FORECAST_URL)) {
+            return source;
+        }
+        return new GroupForecastSource(BuildConfig.GROUP_FORECAST_URL,
+                BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    /**
+     * Picks the forecast source for this sync: the override if one was set, else recorded
+     * payloads if a debug build has a replay directory in its files dir, else OpenWeatherMap.
+     */
+    static ForecastSource getForecastSource(Context context) {
+        ForecastSource source = sForecastSource;
+        if (source != null) {
+            return source;
+        }
+        if (BuildConfig.DEBUG) {
+            File replayDirectory = new File(context.getFilesDir(), REPLAY_DIRECTORY);
+            if (replayDirectory.isDirectory()) {
+                try {
+                    Log.d(LOG_TAG, "Replaying recorded forecasts from " + replayDirectory);
+                    return ReplayForecastSource.fromDirectory(replayDirectory);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error reading replay configuration", e);
+                }
+            }
+        }
+        return new OwmForecastSource();
+    }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    /**
+     * Picks the parser for this sync.  The streaming parser is the default; the tree parser can
+     * be requested with {@link #SYNC_EXTRAS_TREE_PARSER} to compare the two on the same payload,
+     * and is always used before Honeycomb where {@link android.util.JsonReader} is missing.
+     */
+    static ForecastParser getForecastParser(Bundle extras) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || (extras != null && extras.getBoolean(SYNC_EXTRAS_TREE_PARSER, false))) {
+            return new JsonTreeForecastParser();
+        }
+        return new JsonStreamForecastParser();
+    }
 
-                double high;
-                double low;
+    /**
+     * Writes every successfully parsed forecast to the provider in a single batch, so the rows
+     * of all locations land in one transaction with one change notification at the end.  Rows
+     * that match what is already stored are left out of the batch.
+     *
+     * <p>A shallow sync writes its days the same way, but leaves the freshness, validators and
+     * cached payload of each location alone: they describe the whole forecast.
+     *
+     * @return the number of weather rows that changed; 0 means nobody needs to be told
+     * @throws InterruptedException if the sync was canceled; nothing was written
+     */
+    private int storeForecasts(ContentProviderClient provider,
+                               List<ForecastFetchTask.Result> results, boolean fullDepth,
+                               SyncResult syncResult) throws InterruptedException {
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        // Location rows to mark fresh, kept apart so they do not count as changed weather rows
+        ArrayList<ContentProviderOperation> freshness = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        int totalDays = 0;
+        long yesterday = 0;
+
+        for (ForecastFetchTask.Result result : results) {
+            // Comparing with the stored rows reads the database once per location
+            checkCanceled();
+            if (result.status == LOCATION_STATUS_INVALID) {
+                ForecastValidators.clear(getContext(), result.locationSetting);
+            }
+            if (result.notModified) {
+                // A 304 confirms the stored rows, and the validator they were stored with
+                freshness.add(newFreshnessUpdate(result.locationSetting, freshnessValues(now)));
+            }
+            ParsedForecast forecast = result.forecast;
+            if (forecast == null) {
+                continue;
+            }
 
-                String description;
-                int weatherId;
+            long locationId = addLocation(getContext(), result.locationSetting, forecast.getCityName(),
+                    forecast.getCityLatitude(), forecast.getCityLongitude(), forecast.getCityId());
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+            List<ContentValues> days = forecast.getDays();
+            for (ContentValues weatherValues : days) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+            // Only rewrite the days whose values actually changed.  With ON CONFLICT REPLACE
+            // every write is a delete plus an insert, so unchanged rows are pure overhead.
+            List<ContentValues> changedDays = ForecastDiff.changedDays(provider, locationId, days);
+            totalDays += days.size();
+            for (ContentValues weatherValues : changedDays) {
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues)
+                        .build());
+            }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+            // Get the current day activity and save for the pending intent
+            if (result.locationSetting.equals(preferredLocation) && !days.isEmpty()) {
+                ContentValues today = days.get(0);
+                mTodayHigh = Utility.formatTemperature(getContext(),
+                        today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+                mTodayLow = Utility.formatTemperature(getContext(),
+                        today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+                mTodayWeatherId = today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                if (days.size() > 1) {
+                    mTomorrowWeatherId = days.get(1).getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                }
+            }
+            yesterday = forecast.getYesterday();
+            if (fullDepth) {
+                freshness.add(newFreshnessUpdate(result.locationSetting,
+                        freshnessValues(now, result.eTag, result.lastModified)));
+            }
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        int changed = operations.size();
+        Log.d(LOG_TAG, changed + " of " + totalDays + " forecast rows changed");
+        if (yesterday == 0 && freshness.isEmpty()) {
+            // Nothing was parsed or confirmed, so there is nothing to store or clean up
+            return 0;
+        }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        if (yesterday != 0) {
+            // move old days into the archive rather than dropping them, so the live table
+            // stays small while the history is kept
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.withArchive(
+                            WeatherContract.WeatherEntry.CONTENT_URI))
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[] {Long.toString(yesterday)})
+                    .build());
+        }
+        // In the same transaction, so a location is never marked fresh without its rows
+        operations.addAll(freshness);
 
-                ContentValues weatherValues = new ContentValues();
+        try {
+            provider.applyBatch(operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            // The provider rolls the batch back when the sync is canceled under it
+            checkCanceled();
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            syncResult.databaseError = true;
+            return 0;
+        }
 
-                // Get the current day activity and save for the pending intent
-                if (i == 0) {
-                    mTodayHigh = Utility.formatTemperature(getContext(), high);
-                    mTodayLow = Utility.formatTemperature(getContext(), low);
-                    mTodayWeatherId = weatherId;
-                } else if (i == 1) {
-                    mTomorrowWeatherId = weatherId;
+        if (!fullDepth) {
+            return changed;
+        }
+        // Only now that the rows are stored do their validators and payloads describe them
+        Map<String, ByteBuffer> payloads = new HashMap<>();
+        for (ForecastFetchTask.Result result : results) {
+            if (result.forecast != null) {
+                ForecastValidators.save(getContext(), result.locationSetting,
+                        result.eTag, result.lastModified);
+                if (result.payload != null) {
+                    payloads.put(result.locationSetting, result.payload);
                 }
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
             }
+        }
+        PayloadCache.save(getContext(), payloads, Utility.getSavedLocations(getContext()));
+        return changed;
+    }
+
+    /**
+     * @return the freshness of a location whose stored rows the server has just confirmed,
+     * leaving its validator as it is
+     */
+    static ContentValues freshnessValues(long syncedAt) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_SYNCED, syncedAt);
+        return values;
+    }
+
+    /**
+     * @return the freshness of a location whose rows were just stored from a response with the
+     * given validators, either of which may be null
+     */
+    static ContentValues freshnessValues(long syncedAt, String eTag, String lastModified) {
+        ContentValues values = freshnessValues(syncedAt);
+        values.put(WeatherContract.LocationEntry.COLUMN_VALIDATOR,
+                eTag != null ? eTag : lastModified);
+        return values;
+    }
+
+    private static ContentProviderOperation newFreshnessUpdate(String locationSetting,
+                                                               ContentValues freshness) {
+        return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(freshness)
+                .withSelection(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[] {locationSetting})
+                .build();
+    }
+
+    /**
+     * Writes the 3-hourly steps of each location as one columnar batch, which the provider
+     * inserts in a single transaction, then drops steps older than {@link #HOURLY_RETENTION_MILLIS}.
+     *
+     * @throws InterruptedException if the sync was canceled
+     */
+    private void storeHourlyForecasts(ContentProviderClient provider, List<String> locations,
+                                      List<Future<ParsedForecast>> futures, SyncResult syncResult)
+            throws InterruptedException {
+        if (futures.isEmpty()) {
+            return;
+        }
+        int stored = 0;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                checkCanceled();
+                ParsedForecast forecast;
+                try {
+                    forecast = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching hourly forecast for " + locations.get(i), e);
+                    continue;
+                }
+                if (forecast == null || forecast.getSteps().isEmpty()) {
+                    continue;
+                }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                updateWear();
-                notifyWeather();
+                long locationId = addLocation(getContext(), locations.get(i),
+                        forecast.getCityName(), forecast.getCityLatitude(), forecast.getCityLongitude(),
+                        forecast.getCityId());
+                stored += forecast.getStepBatch(locationId)
+                        .insert(provider, WeatherContract.HourlyEntry.CONTENT_URI);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            // Keep the step that is under way, drop everything before it
+            provider.delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                    WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " < ?",
+                    new String[] {Long.toString(System.currentTimeMillis() - HOURLY_RETENTION_MILLIS)});
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Error storing hourly forecasts", e);
+            syncResult.databaseError = true;
+        }
+        Log.d(LOG_TAG, stored + " hourly forecast rows stored");
+    }
+
+    /**
+     * @return where 3-hourly forecasts come from, or null to skip them: they are only available
+     * when daily forecasts come from OWM, and parsing them needs {@link android.util.JsonReader}
+     */
+    private static ForecastSource getHourlyForecastSource(ForecastSource dailySource) {
+        if (!(dailySource instanceof OwmForecastSource)
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
         }
+        return new OwmForecastSource(OwmForecastSource.HOURLY_FORECAST_BASE_URL,
+                BuildConfig.OPEN_WEATHER_MAP_API_KEY);
     }
 
     private void updateWidgets() {
@@ -398,6 +865,37 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * Reads the values the watch face shows from the stored forecast of the preferred location,
+     * for when the watch asks for them and no sync is needed.  Queries the provider, so don't
+     * call it from the UI thread.
+     *
+     * @return the extras {@link WearForecaseUpdateService} expects, or null if nothing is stored
+     */
+    public static Bundle getStoredWearExtras(Context context) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                Utility.getPreferredLocation(context), System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        Bundle extras = null;
+        if (cursor.moveToFirst()) {
+            extras = new Bundle();
+            extras.putString(EXTRA_HIGH_TEMP,
+                    Utility.formatTemperature(context, cursor.getDouble(INDEX_MAX_TEMP)));
+            extras.putString(EXTRA_LOW_TEMP,
+                    Utility.formatTemperature(context, cursor.getDouble(INDEX_MIN_TEMP)));
+            extras.putInt(EXTRA_WEATHER_ID, cursor.getInt(INDEX_WEATHER_ID));
+            if (cursor.moveToNext()) {
+                extras.putInt(EXTRA_TOMORROW_WEATHER_ID, cursor.getInt(INDEX_WEATHER_ID));
+            }
+        }
+        cursor.close();
+        return extras;
+    }
+
     private void updateMuzei() {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
@@ -522,15 +1020,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
+     * @param cityId the OWM city ID, or 0 if the response did not carry one
      * @return the row ID of the added location.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+    static long addLocation(Context context, String locationSetting, String cityName,
+                            double lat, double lon, long cityId) {
         long locationId;
 
         // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+        Cursor locationCursor = context.getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
+                new String[]{WeatherContract.LocationEntry._ID, WeatherContract.LocationEntry.COLUMN_CITY_ID},
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
@@ -538,6 +1038,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
+            // Rows stored before city IDs were kept learn theirs on the next fetch
+            if (cityId != 0 && locationCursor.getLong(1) != cityId) {
+                ContentValues cityIdValues = new ContentValues();
+                cityIdValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                context.getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI,
+                        cityIdValues, WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -549,9 +1057,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            if (cityId != 0) {
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+            }
 
             // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
+            Uri insertedUri = context.getContentResolver().insert(
                     WeatherContract.LocationEntry.CONTENT_URI,
                     locationValues
             );
@@ -585,13 +1096,73 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Requests are coalesced: a
+     * recently synced forecast is served from the database, and a request made while another
+     * is pending or running joins it.  See {@link SyncCoalescer}.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, null);
+    }
+
+    /**
+     * Same as {@link #syncImmediately(Context)}, telling the listener how the request was
+     * answered once it is.
+     */
+    public static void syncImmediately(Context context, SyncCoalescer.Listener listener) {
+        syncImmediately(context, SYNC_DEPTH_FULL, listener);
+    }
+
+    /**
+     * Same as {@link #syncImmediately(Context, SyncCoalescer.Listener)}, for callers that need
+     * only the first days.  {@link #SYNC_DEPTH_TODAY} fetches and writes today and tomorrow of
+     * the preferred location, which is all the watch face or a widget refresh shows; the
+     * periodic sync still brings the full forecast.
+     *
+     * @param depth {@link #SYNC_DEPTH_TODAY} or {@link #SYNC_DEPTH_FULL}
+     */
+    public static void syncImmediately(Context context, int depth,
+                                       SyncCoalescer.Listener listener) {
+        SyncCoalescer.request(context, depth, listener);
+    }
+
+    /**
+     * Asks for a sync of a location whose rows the provider found older than a reader allows.
+     * Unlike {@link #syncImmediately(Context)} this syncs the location that was read, not the
+     * preferred one, and leaves the staleness verdict to the provider.
+     */
+    public static void syncStaleLocation(Context context, String locationSetting) {
+        SyncCoalescer.requestStale(context, locationSetting);
+    }
+
+    /**
+     * Returns the age past which rows have missed a periodic sync: the interval currently
+     * scheduled plus its flex, so the adaptive schedule stretching the interval does not make
+     * every read look stale.  Surfaces that read with WeatherEntry.withMaxAge pass this.
+     */
+    public static long getForecastMaxAgeMillis(Context context) {
+        int interval = SyncScheduler.getLastInterval(context);
+        return (interval + interval / 3) * 1000L;
+    }
+
+    /**
+     * Cancels the sync that is running or pending, as when a newer request supersedes it.
+     */
+    static void cancelSync(Context context) {
+        ContentResolver.cancelSync(getSyncAccount(context),
+                context.getString(R.string.content_authority));
+    }
+
+    /**
+     * Asks the framework for an expedited sync right away, bypassing the coalescer.
+     */
+    static void requestExpeditedSync(Context context, int depth) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        if (depth < SYNC_DEPTH_FULL) {
+            bundle.putInt(SYNC_EXTRAS_DEPTH, depth);
+        }
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -657,15 +1228,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
+     * Records the outcome of the last sync for one location.  The status is held in memory
+     * by {@link LocationStatusStore}, which writes it out in the background and tells the UI
+     * when the status of the preferred location changes.
+     * @param c Context to get the preferences from.
+     * @param locationSetting The location the status belongs to
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus){
+        LocationStatusStore.setStatus(c, locationSetting, locationStatus);
     }
-}
\ No newline at end of file
+}
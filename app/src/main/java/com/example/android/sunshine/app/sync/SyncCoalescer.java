@@ -0,0 +1,322 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sits in front of {@link SunshineSyncAdapter#syncImmediately} so that a burst of callers
+ * (settings changes, watch pings, account creation) costs at most one expedited sync:
+ * <ul>
+ * <li>if every location the request needs was synced less than {@link #FRESHNESS_MILLIS} ago
+ * the request is answered from the database and no sync is requested at all: the preferred
+ * location for a shallow request, all saved locations for a full one</li>
+ * <li>requests arriving within {@link #DEBOUNCE_MILLIS} of each other are folded into one</li>
+ * <li>requests arriving while a sync is already requested or running attach to that sync and
+ * are told when it finishes</li>
+ * <li>a request for a location the running sync does not cover cancels it, and a new sync
+ * follows; everyone waiting is told when that one finishes</li>
+ * <li>each request says how many days it needs; a pending sync fetches the most any of its
+ * callers asked for, and a full request arriving during a shallow sync gets a full follow-up</li>
+ * </ul>
+ * The sync adapter runs in the app process, so the in-flight state is kept in memory.
+ * Listeners are always called on the main thread.
+ */
+public class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    /**
+     * Receives the outcome of a coalesced sync request.
+     */
+    public interface Listener {
+        /**
+         * @param result one of {@link #RESULT_CHANGED}, {@link #RESULT_UNCHANGED} or
+         *               {@link #RESULT_FROM_DATABASE}
+         */
+        void onSyncResult(int result);
+    }
+
+    // A sync ran and rewrote some rows; widgets, Muzei, Wear and notifications were updated
+    public static final int RESULT_CHANGED = 0;
+    // A sync ran but nothing changed, so nothing downstream was told
+    public static final int RESULT_UNCHANGED = 1;
+    // No sync ran because the stored forecast was fresh enough
+    public static final int RESULT_FROM_DATABASE = 2;
+
+    // Requests closer together than this are folded into a single sync
+    static final long DEBOUNCE_MILLIS = 2 * DateUtils.SECOND_IN_MILLIS;
+    // Data synced more recently than this is served from the database
+    static final long FRESHNESS_MILLIS = 30 * DateUtils.MINUTE_IN_MILLIS;
+    // A requested sync that has not started by now was dropped by the framework (no network,
+    // sync disabled), so the next caller asks again instead of attaching to it
+    private static final long REQUEST_EXPIRY_MILLIS = DateUtils.MINUTE_IN_MILLIS;
+
+    private static final String PREFS_NAME = "sync_coalescer";
+    private static final String KEY_LAST_SYNCED_PREFIX = "last_synced:";
+    // When the first days only were last synced; answers shallow requests, not full ones
+    private static final String KEY_LAST_SHALLOW_PREFIX = "last_shallow:";
+
+    private static final Object sLock = new Object();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final List<Listener> sWaiting = new ArrayList<>();
+    // A sync has been asked for (or is about to be, once the debounce window closes)
+    private static boolean sRequested;
+    private static long sRequestedAt;
+    private static int sRequestedDepth;
+    // onPerformSync is running; sInFlightLocations holds the locations it is syncing, to
+    // sInFlightDepth days
+    private static boolean sInFlight;
+    private static List<String> sInFlightLocations = Collections.emptyList();
+    private static int sInFlightDepth;
+    // Days a caller arriving during the running sync needs that it does not cover, or 0
+    private static int sFollowUpDepth;
+
+    private SyncCoalescer() {
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Asks for the preferred location to be brought up to date.
+     *
+     * @param depth how many days must be current: {@link SunshineSyncAdapter#SYNC_DEPTH_TODAY}
+     *              or {@link SunshineSyncAdapter#SYNC_DEPTH_FULL}
+     * @param listener told how the request was answered; may be null
+     */
+    static void request(Context context, int depth, Listener listener) {
+        Context appContext = context.getApplicationContext();
+        // The locations the sync this request asks for would fetch
+        List<String> locations = depth < SunshineSyncAdapter.SYNC_DEPTH_FULL
+                ? Collections.singletonList(Utility.getPreferredLocation(appContext))
+                : Utility.getSavedLocations(appContext);
+        request(appContext, depth, locations, true, listener);
+    }
+
+    /**
+     * Asks for a location the provider found stale to be synced. The provider judged it by
+     * {@link com.example.android.sunshine.app.data.WeatherContract.LocationEntry#COLUMN_LAST_SYNCED},
+     * so its verdict overrides the coalescer's own record, which is dropped for the location;
+     * otherwise a follow-up could still be answered from the database. The request folds into a
+     * sync already requested or running, if any. Locations no sync would fetch are ignored.
+     */
+    static void requestStale(Context context, String locationSetting) {
+        Context appContext = context.getApplicationContext();
+        if (!Utility.getSavedLocations(appContext).contains(locationSetting)) {
+            Log.d(LOG_TAG, locationSetting + " is not saved, no sync would refresh it");
+            return;
+        }
+        getPrefs(appContext).edit()
+                .remove(KEY_LAST_SYNCED_PREFIX + locationSetting)
+                .remove(KEY_LAST_SHALLOW_PREFIX + locationSetting)
+                .apply();
+        request(appContext, SunshineSyncAdapter.SYNC_DEPTH_FULL,
+                Collections.singletonList(locationSetting), false, null);
+    }
+
+    private static void request(final Context appContext, int depth, List<String> locations,
+            boolean answerIfFresh, Listener listener) {
+        String preferredLocation = Utility.getPreferredLocation(appContext);
+
+        synchronized (sLock) {
+            if (sRequested && System.currentTimeMillis() - sRequestedAt > REQUEST_EXPIRY_MILLIS) {
+                Log.w(LOG_TAG, "Requested sync never started, requesting again");
+                sRequested = false;
+            }
+            if (answerIfFresh && !sRequested && !sInFlight
+                    && isFresh(appContext, locations, depth)) {
+                Log.d(LOG_TAG, locations + " are fresh, answering from the database");
+                deliver(listener, RESULT_FROM_DATABASE);
+                // Anyone left waiting for a follow-up that turned out unnecessary
+                for (Listener waiting : sWaiting) {
+                    deliver(waiting, RESULT_FROM_DATABASE);
+                }
+                sWaiting.clear();
+                return;
+            }
+            if (listener != null) {
+                sWaiting.add(listener);
+            }
+            if (sInFlight) {
+                // Join the running sync, unless it started before this location was saved;
+                // then it would only write data nobody is looking at any more
+                if (!sInFlightLocations.contains(preferredLocation)) {
+                    if (sFollowUpDepth == 0) {
+                        Log.d(LOG_TAG, "Sync in flight is superseded, canceling it");
+                        SunshineSyncAdapter.cancelSync(appContext);
+                    }
+                    sFollowUpDepth = Math.max(sFollowUpDepth, depth);
+                    return;
+                }
+                if (depth > sInFlightDepth || !sInFlightLocations.containsAll(locations)) {
+                    // Let the running sync finish, it has the preferred location; a sync
+                    // covering the deeper or newly saved rest follows
+                    Log.d(LOG_TAG, "Sync in flight falls short, following up with " + depth
+                            + " days");
+                    sFollowUpDepth = Math.max(sFollowUpDepth, depth);
+                    return;
+                }
+                Log.d(LOG_TAG, "Sync in flight, attaching request");
+                return;
+            }
+            if (sRequested) {
+                Log.d(LOG_TAG, "Sync already requested, attaching request");
+                sRequestedDepth = Math.max(sRequestedDepth, depth);
+                return;
+            }
+            sRequested = true;
+            sRequestedAt = System.currentTimeMillis();
+            sRequestedDepth = depth;
+        }
+
+        sHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                int requestedDepth;
+                synchronized (sLock) {
+                    requestedDepth = sRequestedDepth;
+                }
+                SunshineSyncAdapter.requestExpeditedSync(appContext, requestedDepth);
+            }
+        }, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Called by the sync adapter as it starts, whoever asked for the sync.
+     *
+     * @param depth the number of days the sync fetches
+     */
+    static void onSyncStarted(List<String> locations, int depth) {
+        synchronized (sLock) {
+            // A periodic sync may start while a shallow request is pending; that request
+            // then still goes ahead, and is answered from the database
+            sRequested = false;
+            sInFlight = true;
+            sInFlightLocations = locations;
+            sInFlightDepth = depth;
+        }
+    }
+
+    /**
+     * Called by the sync adapter once it has stored its results.  Waiting listeners are told the
+     * outcome, and a follow-up sync is requested for callers the finished sync did not cover.
+     *
+     * @param syncedLocations the locations that were synced successfully
+     * @param changed true if any weather row was rewritten
+     */
+    static void onSyncFinished(Context context, List<String> syncedLocations, boolean changed) {
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        int depth;
+        synchronized (sLock) {
+            depth = sInFlightDepth;
+        }
+        String prefix = depth < SunshineSyncAdapter.SYNC_DEPTH_FULL
+                ? KEY_LAST_SHALLOW_PREFIX : KEY_LAST_SYNCED_PREFIX;
+        for (String location : syncedLocations) {
+            editor.putLong(prefix + location, now);
+        }
+        editor.apply();
+
+        List<Listener> waiting = new ArrayList<>();
+        int followUpDepth;
+        synchronized (sLock) {
+            sInFlight = false;
+            sInFlightLocations = Collections.emptyList();
+            followUpDepth = sFollowUpDepth;
+            sFollowUpDepth = 0;
+            if (followUpDepth == 0) {
+                // Otherwise they wait for the follow-up, which covers what they asked for
+                waiting.addAll(sWaiting);
+                sWaiting.clear();
+            }
+        }
+
+        int result = changed ? RESULT_CHANGED : RESULT_UNCHANGED;
+        for (Listener listener : waiting) {
+            deliver(listener, result);
+        }
+        if (followUpDepth > 0) {
+            request(context, followUpDepth, null);
+        }
+    }
+
+    /**
+     * Called by the sync adapter whenever onPerformSync returns or throws.  If the sync died
+     * before reporting {@link #onSyncFinished}, it is finished now as one that synced nothing,
+     * so waiting listeners are told and later requests don't attach to it.
+     */
+    static void onSyncEnded(Context context) {
+        synchronized (sLock) {
+            if (!sInFlight) {
+                return;
+            }
+        }
+        Log.w(LOG_TAG, "Sync ended without finishing");
+        onSyncFinished(context, Collections.<String>emptyList(), false);
+    }
+
+    /**
+     * Records that a location's rows were brought up to date outside a sync, as when a
+     * prefetched forecast is promoted.
+     *
+     * @param depth how far the rows are current: {@link SunshineSyncAdapter#SYNC_DEPTH_TODAY}
+     *              if they answer only requests for the first days
+     * @param syncedAt when the rows were fetched
+     */
+    static void markSynced(Context context, String locationSetting, int depth, long syncedAt) {
+        String prefix = depth < SunshineSyncAdapter.SYNC_DEPTH_FULL
+                ? KEY_LAST_SHALLOW_PREFIX : KEY_LAST_SYNCED_PREFIX;
+        getPrefs(context).edit().putLong(prefix + locationSetting, syncedAt).apply();
+    }
+
+    /**
+     * @return true if every one of the locations is fresh to at least the given depth
+     */
+    private static boolean isFresh(Context context, List<String> locations, int depth) {
+        for (String location : locations) {
+            if (!isFresh(context, location, depth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the location was synced successfully, to at least the given depth, within
+     * {@link #FRESHNESS_MILLIS}
+     */
+    static boolean isFresh(Context context, String locationSetting, int depth) {
+        SharedPreferences prefs = getPrefs(context);
+        long lastSynced = prefs.getLong(KEY_LAST_SYNCED_PREFIX + locationSetting, 0);
+        if (depth < SunshineSyncAdapter.SYNC_DEPTH_FULL) {
+            // A full sync covers the first days too
+            lastSynced = Math.max(lastSynced,
+                    prefs.getLong(KEY_LAST_SHALLOW_PREFIX + locationSetting, 0));
+        }
+        long age = System.currentTimeMillis() - lastSynced;
+        return age >= 0 && age < FRESHNESS_MILLIS;
+    }
+
+    private static void deliver(final Listener listener, final int result) {
+        if (listener == null) {
+            return;
+        }
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSyncResult(result);
+            }
+        });
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Locale;
+
+/**
+ * Chooses the periodic sync interval when adaptive sync is enabled in settings.  Three inputs
+ * feed the decision:
+ * <ul>
+ * <li>volatility: the share of forecast rows that changed over the last few syncs</li>
+ * <li>data age: how many days of stored forecast are left before it runs out</li>
+ * <li>attention: whether the app was opened recently, or failing that a widget was redrawn
+ * while the screen was on</li>
+ * </ul>
+ * A stable forecast nobody is looking at stretches towards {@link #MAX_INTERVAL}; a volatile
+ * one, or one that is about to run out, tightens towards {@link #MIN_INTERVAL}.  The chosen
+ * interval and the reason for it are kept so they can be inspected while tuning.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Intervals are in seconds, like SunshineSyncAdapter.SYNC_INTERVAL
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // How many past syncs the volatility is averaged over
+    private static final int HISTORY_SIZE = 4;
+    // At or above this share of changed rows the forecast counts as fully volatile
+    private static final double VOLATILE_CHANGE_RATIO = 0.5;
+    // Below this many days of stored forecast, don't wait longer than the default interval
+    private static final int STALE_DAYS_REMAINING = 3;
+    // The app counts as recently viewed if it was opened within this window
+    private static final long RECENT_VIEW_MILLIS = 6 * DateUtils.HOUR_IN_MILLIS;
+    // Likewise a widget, if it was redrawn with the screen on within this window
+    private static final long RECENT_WIDGET_VIEW_MILLIS = 6 * DateUtils.HOUR_IN_MILLIS;
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_HISTORY = "change_history";
+    private static final String KEY_LAST_VIEWED = "last_viewed";
+    private static final String KEY_WIDGET_LAST_VIEWED = "widget_last_viewed";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_REASON = "reason";
+
+    private SyncScheduler() {
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return true if the user turned on adaptive sync in settings
+     */
+    public static boolean isAdaptive(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(context.getString(R.string.pref_adaptive_sync_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_adaptive_sync_default)));
+    }
+
+    /**
+     * Notes that the user is looking at the forecast.  Call from the UI when it comes to the
+     * foreground.
+     */
+    public static void recordViewed(Context context) {
+        getPrefs(context).edit().putLong(KEY_LAST_VIEWED, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Notes that a widget was redrawn.  It only counts while the screen is on, and even then
+     * the home screen may have been behind another app, so it weighs less than an app open.
+     * Call from the widgets whenever they load their data.
+     */
+    public static void recordWidgetShown(Context context) {
+        if (isScreenOn(context)) {
+            getPrefs(context).edit()
+                    .putLong(KEY_WIDGET_LAST_VIEWED, System.currentTimeMillis())
+                    .apply();
+        }
+    }
+
+    /**
+     * Adds the outcome of one sync to the change history and, in adaptive mode, reschedules
+     * the periodic sync if the best interval moved.
+     *
+     * @param changedRows rows the sync actually rewrote
+     * @param receivedRows rows the server sent, counting a 304 as its stored rows unchanged
+     */
+    static void onSyncFinished(Context context, int changedRows, int receivedRows) {
+        if (receivedRows > 0) {
+            recordChange(context, (double) changedRows / receivedRows);
+        }
+        if (isAdaptive(context)) {
+            reschedule(context);
+        }
+    }
+
+    /**
+     * Applies the current scheduling mode: the adaptive interval if enabled, else the fixed
+     * default.  Call when the mode is switched.
+     */
+    public static void reschedule(Context context) {
+        int previous = getLastInterval(context);
+        int interval;
+        if (isAdaptive(context)) {
+            interval = decide(context);
+        } else {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            saveDecision(context, interval, "fixed interval");
+        }
+        if (interval != previous) {
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+        }
+    }
+
+    /**
+     * @return the last interval chosen, in seconds
+     */
+    public static int getLastInterval(Context context) {
+        return getPrefs(context).getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * @return a readable explanation of why the last interval was chosen
+     */
+    public static String getLastReason(Context context) {
+        return getPrefs(context).getString(KEY_REASON, "fixed interval");
+    }
+
+    private static int decide(Context context) {
+        StringBuilder reason = new StringBuilder();
+
+        // Start from volatility: stable forecasts stretch towards the maximum, volatile ones
+        // shrink towards the minimum.
+        double volatility = getVolatility(context);
+        double interval;
+        if (Double.isNaN(volatility)) {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            reason.append("no change history");
+        } else {
+            double weight = Math.min(1.0, volatility / VOLATILE_CHANGE_RATIO);
+            interval = MAX_INTERVAL - weight * (MAX_INTERVAL - MIN_INTERVAL);
+            reason.append(String.format(Locale.US, "%.0f%% of rows changing", volatility * 100));
+        }
+
+        // Someone looking at the forecast wants it fresher than nobody looking at it.  Opening
+        // the app is a surer sign of that than a widget redrawn while the screen was on.
+        if (wasViewedWithin(context, KEY_LAST_VIEWED, RECENT_VIEW_MILLIS)) {
+            interval = Math.min(interval, 2 * SunshineSyncAdapter.SYNC_INTERVAL);
+            reason.append(", viewed recently");
+        } else if (wasViewedWithin(context, KEY_WIDGET_LAST_VIEWED, RECENT_WIDGET_VIEW_MILLIS)) {
+            interval = Math.min(interval, 3 * SunshineSyncAdapter.SYNC_INTERVAL);
+            reason.append(", widget seen recently");
+        } else {
+            reason.append(", not viewed");
+        }
+
+        // Never let the stored forecast run out while waiting for a long interval.
+        int daysRemaining = getStoredDaysRemaining(context);
+        if (daysRemaining < STALE_DAYS_REMAINING) {
+            interval = Math.min(interval, SunshineSyncAdapter.SYNC_INTERVAL);
+            reason.append(", only ").append(daysRemaining).append(" days stored");
+        }
+
+        int chosen = (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        saveDecision(context, chosen, reason.toString());
+        return chosen;
+    }
+
+    private static void saveDecision(Context context, int interval, String reason) {
+        Log.i(LOG_TAG, "Sync interval " + interval / 60 + " min: " + reason);
+        getPrefs(context).edit()
+                .putInt(KEY_INTERVAL, interval)
+                .putString(KEY_REASON, reason)
+                .apply();
+    }
+
+    private static void recordChange(Context context, double ratio) {
+        String history = getPrefs(context).getString(KEY_HISTORY, "");
+        String[] entries = history.length() == 0 ? new String[0] : history.split(",");
+
+        StringBuilder updated = new StringBuilder(String.format(Locale.US, "%.3f", ratio));
+        for (int i = 0; i < entries.length && i < HISTORY_SIZE - 1; i++) {
+            updated.append(',').append(entries[i]);
+        }
+        getPrefs(context).edit().putString(KEY_HISTORY, updated.toString()).apply();
+    }
+
+    /**
+     * @return the average share of changed rows over the recorded history, or NaN if none
+     */
+    private static double getVolatility(Context context) {
+        String history = getPrefs(context).getString(KEY_HISTORY, "");
+        if (history.length() == 0) {
+            return Double.NaN;
+        }
+        String[] entries = history.split(",");
+        double sum = 0;
+        for (String entry : entries) {
+            sum += Double.parseDouble(entry);
+        }
+        return sum / entries.length;
+    }
+
+    private static boolean wasViewedWithin(Context context, String key, long windowMillis) {
+        long lastViewed = getPrefs(context).getLong(key, 0);
+        return System.currentTimeMillis() - lastViewed < windowMillis;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT_WATCH)
+    @SuppressWarnings("deprecation")
+    private static boolean isScreenOn(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return powerManager.isInteractive();
+        }
+        return powerManager.isScreenOn();
+    }
+
+    private static int getStoredDaysRemaining(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        Utility.getPreferredLocation(context), System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return 0;
+        }
+        int days = cursor.getCount();
+        cursor.close();
+        return days;
+    }
+}
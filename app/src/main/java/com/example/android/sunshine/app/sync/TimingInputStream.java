@@ -0,0 +1,52 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures how long its reader spends blocked reading.  Wrapped around a response body that is
+ * parsed as it streams in, it separates the time spent waiting for the network from the time
+ * spent parsing.
+ */
+class TimingInputStream extends FilterInputStream {
+    private long mReadNanos;
+
+    TimingInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getReadMillis() {
+        return mReadNanos / 1000000;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(buffer, offset, count);
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.skip(byteCount);
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.TaskStackBuilder;
 import android.widget.RemoteViews;
@@ -22,6 +23,20 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetProvider extends AppWidgetProvider {
+    // A reload of the list this soon after a sync asked for one is taken to be the sync's own
+    private static final long SYNC_RELOAD_WINDOW_MILLIS = 10 * 1000;
+    // When a sync last asked for the list to be reloaded, or -1 if none has
+    private static volatile long sDataUpdatedAt = -1;
+
+    /**
+     * @return whether the list is being reloaded because a sync changed the data, rather than
+     * because the host is showing the widget
+     */
+    static boolean isSyncReload() {
+        return sDataUpdatedAt >= 0
+                && SystemClock.elapsedRealtime() - sDataUpdatedAt < SYNC_RELOAD_WINDOW_MILLIS;
+    }
+
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         // Perform this loop procedure for each App Widget that belongs to this provider
         for (int appWidgetId : appWidgetIds) {
@@ -58,6 +73,7 @@ public class DetailWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+            sDataUpdatedAt = SystemClock.elapsedRealtime();
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
                     new ComponentName(context, getClass()));
@@ -17,6 +17,8 @@ import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 
 import java.util.concurrent.ExecutionException;
 
@@ -62,9 +64,17 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
+                // Lets the adaptive sync interval know someone may be looking at the forecast,
+                // unless the sync's own ACTION_DATA_UPDATED caused this reload
+                if (!DetailWidgetProvider.isSyncReload()) {
+                    SyncScheduler.recordWidgetShown(DetailWidgetRemoteViewsService.this);
+                }
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                Uri weatherForLocationUri = WeatherContract.WeatherEntry.withMaxAge(
+                        WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                                location, System.currentTimeMillis()),
+                        SunshineSyncAdapter.getForecastMaxAgeMillis(
+                                DetailWidgetRemoteViewsService.this));
                 data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
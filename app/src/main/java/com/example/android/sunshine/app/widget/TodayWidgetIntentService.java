@@ -33,11 +33,16 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
  */
 public class TodayWidgetIntentService extends IntentService {
+    // Set when a sync's ACTION_DATA_UPDATED asked for the redraw, which says nothing about
+    // whether anyone is looking
+    static final String EXTRA_DATA_UPDATED = "data_updated";
+
     private static final String[] FORECAST_COLUMNS = {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
@@ -60,9 +65,15 @@ public class TodayWidgetIntentService extends IntentService {
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
+        if (appWidgetIds.length > 0 && !intent.getBooleanExtra(EXTRA_DATA_UPDATED, false)) {
+            // Lets the adaptive sync interval know someone may be looking at the forecast
+            SyncScheduler.recordWidgetShown(this);
+        }
 
         // Get today's data from the ContentProvider
         String location = Utility.getPreferredLocation(this);
+        // Not opted into revalidation: the periodic sync keeps these rows fresh and sends
+        // ACTION_DATA_UPDATED when they change, so redrawing the widget never costs a request
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 location, System.currentTimeMillis());
         Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
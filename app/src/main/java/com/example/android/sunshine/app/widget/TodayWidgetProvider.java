@@ -47,7 +47,8 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .putExtra(TodayWidgetIntentService.EXTRA_DATA_UPDATED, true));
         }
     }
 }